@@ -0,0 +1,396 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.olingo.commons.api.edm.EdmAnnotation;
+import org.apache.olingo.commons.api.edm.EdmElement;
+import org.apache.olingo.commons.api.edm.EdmEntityType;
+import org.apache.olingo.commons.api.edm.EdmKeyPropertyRef;
+import org.apache.olingo.commons.api.edm.EdmMapping;
+import org.apache.olingo.commons.api.edm.EdmNavigationProperty;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveType;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.apache.olingo.commons.api.edm.EdmProperty;
+import org.apache.olingo.commons.api.edm.EdmTerm;
+import org.apache.olingo.commons.api.edm.EdmType;
+import org.apache.olingo.commons.api.edm.FullQualifiedName;
+import org.apache.olingo.commons.api.edm.constants.EdmTypeKind;
+import org.apache.olingo.commons.api.edm.geo.SRID;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.uri.UriResource;
+import org.apache.olingo.server.api.uri.UriResourceProperty;
+import org.apache.olingo.server.api.uri.queryoption.ComputeItem;
+import org.apache.olingo.server.api.uri.queryoption.ComputeOption;
+import org.apache.olingo.server.api.uri.queryoption.expression.Binary;
+import org.apache.olingo.server.api.uri.queryoption.expression.BinaryOperatorKind;
+import org.apache.olingo.server.api.uri.queryoption.expression.Expression;
+import org.apache.olingo.server.api.uri.queryoption.expression.Literal;
+import org.apache.olingo.server.api.uri.queryoption.expression.Member;
+import org.apache.olingo.server.api.uri.queryoption.expression.Method;
+import org.apache.olingo.server.api.uri.queryoption.expression.TypeLiteral;
+import org.apache.olingo.server.api.uri.queryoption.expression.Unary;
+
+/**
+ * The properties a request's $compute adds to an entity type, typed from their
+ * expressions. {@link #extend} exposes them as properties of the entity type, so
+ * the serializer writes computed values like declared ones.
+ */
+final class ComputedProperties {
+
+    private final Map<String, EdmPrimitiveTypeKind> kinds = new LinkedHashMap<>();
+
+    private ComputedProperties() {
+    }
+
+    static ComputedProperties of(ComputeOption computeOption) {
+        ComputedProperties computed = new ComputedProperties();
+        if (computeOption != null) {
+            for (ComputeItem item : computeOption.getComputeItems()) {
+                computed.kinds.put(item.getAlias(), computed.kindOf(item.getExpression()));
+            }
+        }
+        return computed;
+    }
+
+    boolean isEmpty() {
+        return kinds.isEmpty();
+    }
+
+    /**
+     * Computed property names in $compute order, with their types.
+     */
+    Map<String, EdmPrimitiveTypeKind> getKinds() {
+        return kinds;
+    }
+
+    /**
+     * The entity type with the computed properties appended to its structural ones.
+     */
+    EdmEntityType extend(EdmEntityType entityType, OData odata) {
+        if (kinds.isEmpty()) {
+            return entityType;
+        }
+        Map<String, EdmProperty> properties = new LinkedHashMap<>();
+        kinds.forEach((name, kind) -> properties.put(name,
+                new ComputedProperty(name, odata.createPrimitiveTypeInstance(kind))));
+        return new ComputedEntityType(entityType, properties);
+    }
+
+    /**
+     * An entity type that also has the computed properties. Everything else is
+     * answered by the declared type.
+     */
+    private static final class ComputedEntityType implements EdmEntityType {
+        private final EdmEntityType declared;
+        private final Map<String, EdmProperty> computed;
+
+        ComputedEntityType(EdmEntityType declared, Map<String, EdmProperty> computed) {
+            this.declared = declared;
+            this.computed = computed;
+        }
+
+        @Override
+        public List<String> getPropertyNames() {
+            List<String> names = new ArrayList<>(declared.getPropertyNames());
+            names.addAll(computed.keySet());
+            return names;
+        }
+
+        @Override
+        public EdmElement getProperty(String name) {
+            return computed.containsKey(name) ? computed.get(name) : declared.getProperty(name);
+        }
+
+        @Override
+        public EdmProperty getStructuralProperty(String name) {
+            return computed.containsKey(name) ? computed.get(name) : declared.getStructuralProperty(name);
+        }
+
+        @Override
+        public EdmNavigationProperty getNavigationProperty(String name) {
+            return declared.getNavigationProperty(name);
+        }
+
+        @Override
+        public List<String> getNavigationPropertyNames() {
+            return declared.getNavigationPropertyNames();
+        }
+
+        @Override
+        public List<String> getKeyPredicateNames() {
+            return declared.getKeyPredicateNames();
+        }
+
+        @Override
+        public List<EdmKeyPropertyRef> getKeyPropertyRefs() {
+            return declared.getKeyPropertyRefs();
+        }
+
+        @Override
+        public EdmKeyPropertyRef getKeyPropertyRef(String keyPredicateName) {
+            return declared.getKeyPropertyRef(keyPredicateName);
+        }
+
+        @Override
+        public boolean hasStream() {
+            return declared.hasStream();
+        }
+
+        @Override
+        public EdmEntityType getBaseType() {
+            return declared.getBaseType();
+        }
+
+        @Override
+        public boolean compatibleTo(EdmType targetType) {
+            return declared.compatibleTo(targetType);
+        }
+
+        @Override
+        public boolean isOpenType() {
+            return declared.isOpenType();
+        }
+
+        @Override
+        public boolean isAbstract() {
+            return declared.isAbstract();
+        }
+
+        @Override
+        public FullQualifiedName getFullQualifiedName() {
+            return declared.getFullQualifiedName();
+        }
+
+        @Override
+        public String getNamespace() {
+            return declared.getNamespace();
+        }
+
+        @Override
+        public EdmTypeKind getKind() {
+            return declared.getKind();
+        }
+
+        @Override
+        public String getName() {
+            return declared.getName();
+        }
+
+        @Override
+        public EdmAnnotation getAnnotation(EdmTerm term, String qualifier) {
+            return declared.getAnnotation(term, qualifier);
+        }
+
+        @Override
+        public List<EdmAnnotation> getAnnotations() {
+            return declared.getAnnotations();
+        }
+    }
+
+    /**
+     * A nullable primitive property holding a computed value.
+     */
+    private static final class ComputedProperty implements EdmProperty {
+        private final String name;
+        private final EdmPrimitiveType type;
+
+        ComputedProperty(String name, EdmPrimitiveType type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public EdmType getType() {
+            return type;
+        }
+
+        @Override
+        public EdmType getTypeWithAnnotations() {
+            return type;
+        }
+
+        @Override
+        public boolean isCollection() {
+            return false;
+        }
+
+        @Override
+        public boolean isPrimitive() {
+            return true;
+        }
+
+        @Override
+        public boolean isNullable() {
+            return true;
+        }
+
+        @Override
+        public boolean isUnicode() {
+            return true;
+        }
+
+        @Override
+        public String getMimeType() {
+            return null;
+        }
+
+        @Override
+        public Integer getMaxLength() {
+            return null;
+        }
+
+        @Override
+        public Integer getPrecision() {
+            return null;
+        }
+
+        @Override
+        public Integer getScale() {
+            return null;
+        }
+
+        @Override
+        public SRID getSrid() {
+            return null;
+        }
+
+        @Override
+        public String getDefaultValue() {
+            return null;
+        }
+
+        @Override
+        public EdmMapping getMapping() {
+            return null;
+        }
+
+        @Override
+        public EdmAnnotation getAnnotation(EdmTerm term, String qualifier) {
+            return null;
+        }
+
+        @Override
+        public List<EdmAnnotation> getAnnotations() {
+            return List.of();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Result type of an expression: numeric operators widen their operands, adding or
+     * subtracting a duration keeps the temporal type, date and time functions yield
+     * their temporal types, string functions yield strings and predicates booleans.
+     */
+    private EdmPrimitiveTypeKind kindOf(Expression expression) {
+        if (expression instanceof Literal) {
+            EdmType type = ((Literal) expression).getType();
+            return type instanceof EdmPrimitiveType
+                    ? EdmPrimitiveTypeKind.valueOfFQN(type.getFullQualifiedName()) : EdmPrimitiveTypeKind.String;
+        }
+        if (expression instanceof Member) {
+            List<UriResource> segments = ((Member) expression).getResourcePath().getUriResourceParts();
+            if (segments.size() == 1 && segments.get(0) instanceof UriResourceProperty) {
+                String name = ((UriResourceProperty) segments.get(0)).getProperty().getName();
+                if (kinds.containsKey(name)) {
+                    return kinds.get(name);
+                }
+                EdmType type = ((UriResourceProperty) segments.get(0)).getProperty().getType();
+                if (type instanceof EdmPrimitiveType) {
+                    return EdmPrimitiveTypeKind.valueOfFQN(type.getFullQualifiedName());
+                }
+            }
+            return EdmPrimitiveTypeKind.String;
+        }
+        if (expression instanceof Unary) {
+            Unary unary = (Unary) expression;
+            return switch (unary.getOperator()) {
+                case NOT -> EdmPrimitiveTypeKind.Boolean;
+                default -> kindOf(unary.getOperand());
+            };
+        }
+        if (expression instanceof Binary) {
+            Binary binary = (Binary) expression;
+            return switch (binary.getOperator()) {
+                case ADD, SUB -> arithmetic(binary.getOperator() == BinaryOperatorKind.SUB,
+                        kindOf(binary.getLeftOperand()), kindOf(binary.getRightOperand()));
+                case MUL, DIV, MOD -> widen(kindOf(binary.getLeftOperand()), kindOf(binary.getRightOperand()));
+                default -> EdmPrimitiveTypeKind.Boolean;
+            };
+        }
+        if (expression instanceof Method) {
+            Method method = (Method) expression;
+            return switch (method.getMethod()) {
+                case CONTAINS, STARTSWITH, ENDSWITH -> EdmPrimitiveTypeKind.Boolean;
+                case LENGTH, INDEXOF, YEAR, MONTH, DAY, HOUR, MINUTE, SECOND -> EdmPrimitiveTypeKind.Int32;
+                case ROUND, FLOOR, CEILING -> method.getParameters().isEmpty()
+                        ? EdmPrimitiveTypeKind.Double : kindOf(method.getParameters().get(0));
+                case DATE -> EdmPrimitiveTypeKind.Date;
+                case TIME -> EdmPrimitiveTypeKind.TimeOfDay;
+                case NOW -> EdmPrimitiveTypeKind.DateTimeOffset;
+                case CAST -> castKind(method.getParameters());
+                default -> EdmPrimitiveTypeKind.String;
+            };
+        }
+        return EdmPrimitiveTypeKind.String;
+    }
+
+    /**
+     * Target type of cast(expression, type) or cast(type), whose last parameter is
+     * the type literal.
+     */
+    private static EdmPrimitiveTypeKind castKind(List<Expression> parameters) {
+        if (!parameters.isEmpty() && parameters.get(parameters.size() - 1) instanceof TypeLiteral) {
+            EdmType type = ((TypeLiteral) parameters.get(parameters.size() - 1)).getType();
+            if (type instanceof EdmPrimitiveType) {
+                return EdmPrimitiveTypeKind.valueOfFQN(type.getFullQualifiedName());
+            }
+        }
+        return EdmPrimitiveTypeKind.String;
+    }
+
+    /**
+     * Type of add or sub: a date or time shifted by a duration keeps its type, the
+     * difference of two values of one temporal type is a duration, and numbers widen.
+     */
+    private static EdmPrimitiveTypeKind arithmetic(
+            boolean subtract, EdmPrimitiveTypeKind left, EdmPrimitiveTypeKind right) {
+        if (isPointInTime(left)) {
+            return subtract && right == left ? EdmPrimitiveTypeKind.Duration : left;
+        }
+        if (isPointInTime(right)) {
+            return right;
+        }
+        if (left == EdmPrimitiveTypeKind.Duration || right == EdmPrimitiveTypeKind.Duration) {
+            return EdmPrimitiveTypeKind.Duration;
+        }
+        return widen(left, right);
+    }
+
+    private static boolean isPointInTime(EdmPrimitiveTypeKind kind) {
+        return kind == EdmPrimitiveTypeKind.Date || kind == EdmPrimitiveTypeKind.DateTimeOffset
+                || kind == EdmPrimitiveTypeKind.TimeOfDay;
+    }
+
+    private static EdmPrimitiveTypeKind widen(EdmPrimitiveTypeKind left, EdmPrimitiveTypeKind right) {
+        if (left == EdmPrimitiveTypeKind.Double || right == EdmPrimitiveTypeKind.Double
+                || left == EdmPrimitiveTypeKind.Single || right == EdmPrimitiveTypeKind.Single) {
+            return EdmPrimitiveTypeKind.Double;
+        }
+        if (left == EdmPrimitiveTypeKind.Decimal || right == EdmPrimitiveTypeKind.Decimal) {
+            return EdmPrimitiveTypeKind.Decimal;
+        }
+        return EdmPrimitiveTypeKind.Int64;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of entity counts keyed by entity set, WHERE clause and bound
+ * arguments. Entries expire after a short time to live, so a cached count lags
+ * writes by at most that long.
+ */
+final class CountCache {
+
+    /**
+     * A count and whether it is a planner estimate rather than an exact COUNT(*).
+     */
+    static final class Count {
+        final long value;
+        final boolean approximate;
+
+        Count(long value, boolean approximate) {
+            this.value = value;
+            this.approximate = approximate;
+        }
+    }
+
+    private static final class Entry {
+        final Count count;
+        final long expiresAt;
+
+        Entry(Count count, long expiresAt) {
+            this.count = count;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Map<String, Entry> entries;
+    private final long ttlNanos;
+
+    CountCache(int maxSize, long ttlMillis) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+        this.ttlNanos = ttlMillis * 1_000_000L;
+    }
+
+    synchronized Count get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt >= 0) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.count;
+    }
+
+    synchronized void put(String key, Count count) {
+        entries.put(key, new Entry(count, System.nanoTime() + ttlNanos));
+    }
+}
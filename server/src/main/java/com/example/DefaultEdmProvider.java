@@ -43,6 +43,9 @@ public class DefaultEdmProvider extends CsdlAbstractEdmProvider {
 
     public static final String NAMESPACE = "OData.Demo";
     public static final String CONTAINER_NAME = "Container";
+    // Navigation properties of a self-referencing foreign key, such as a tree's parent column
+    public static final String PARENT_NAVIGATION = "Parent";
+    public static final String CHILDREN_NAVIGATION = "Children";
     public static final FullQualifiedName CONTAINER_FQN = new FullQualifiedName(NAMESPACE, CONTAINER_NAME);
 
     public DefaultEdmProvider(DataSource dataSource) {
@@ -54,6 +57,8 @@ public class DefaultEdmProvider extends CsdlAbstractEdmProvider {
         List<ColumnInfo> columns = new ArrayList<>();
         List<String> primaryKeys = new ArrayList<>();
         List<ForeignKeyInfo> foreignKeys = new ArrayList<>();
+        // Foreign keys of other tables that reference this one
+        List<ForeignKeyInfo> exportedKeys = new ArrayList<>();
 
         TableInfo(String tableName) {
             this.tableName = tableName;
@@ -63,17 +68,29 @@ public class DefaultEdmProvider extends CsdlAbstractEdmProvider {
     private static class ColumnInfo {
         String columnName;
         int dataType;
+        int columnSize;
+        // NOT NULL without a default or generated value, so an INSERT must set it
+        boolean required;
 
-        ColumnInfo(String columnName, int dataType) {
+        ColumnInfo(String columnName, int dataType, int columnSize) {
             this.columnName = columnName;
             this.dataType = dataType;
+            this.columnSize = columnSize;
         }
     }
 
-    private static class ForeignKeyInfo {
+    static class ForeignKeyInfo {
+        String fkTableName;
         String fkColumnName;
         String pkTableName;
         String pkColumnName;
+
+        /**
+         * Whether the key references its own table, making the rows a hierarchy.
+         */
+        boolean isSelfReference() {
+            return fkTableName.equalsIgnoreCase(pkTableName);
+        }
     }
 
     private void scanDatabaseSchema() throws SQLException {
@@ -98,7 +115,13 @@ public class DefaultEdmProvider extends CsdlAbstractEdmProvider {
             for (TableInfo table : cachedTables.values()) {
                 try (ResultSet rsCols = meta.getColumns(null, databaseSchema, table.tableName, "%")) {
                     while (rsCols.next()) {
-                        table.columns.add(new ColumnInfo(rsCols.getString("COLUMN_NAME"), rsCols.getInt("DATA_TYPE")));
+                        ColumnInfo col = new ColumnInfo(rsCols.getString("COLUMN_NAME"), rsCols.getInt("DATA_TYPE"),
+                                rsCols.getInt("COLUMN_SIZE"));
+                        col.required = rsCols.getInt("NULLABLE") == DatabaseMetaData.columnNoNulls
+                                && rsCols.getString("COLUMN_DEF") == null
+                                && !"YES".equals(rsCols.getString("IS_AUTOINCREMENT"))
+                                && !"YES".equals(rsCols.getString("IS_GENERATEDCOLUMN"));
+                        table.columns.add(col);
                     }
                 }
 
@@ -111,12 +134,31 @@ public class DefaultEdmProvider extends CsdlAbstractEdmProvider {
                 try (ResultSet rsFks = meta.getImportedKeys(null, databaseSchema, table.tableName)) {
                     while (rsFks.next()) {
                         ForeignKeyInfo fk = new ForeignKeyInfo();
+                        fk.fkTableName = table.tableName;
                         fk.fkColumnName = rsFks.getString("FKCOLUMN_NAME");
                         fk.pkTableName = rsFks.getString("PKTABLE_NAME");
                         fk.pkColumnName = rsFks.getString("PKCOLUMN_NAME");
                         table.foreignKeys.add(fk);
                     }
                 }
+
+                try (ResultSet rsFks = meta.getExportedKeys(null, databaseSchema, table.tableName)) {
+                    while (rsFks.next()) {
+                        String fkTableName = rsFks.getString("FKTABLE_NAME");
+                        ForeignKeyInfo fk = new ForeignKeyInfo();
+                        fk.fkTableName = fkTableName;
+                        fk.fkColumnName = rsFks.getString("FKCOLUMN_NAME");
+                        fk.pkTableName = table.tableName;
+                        fk.pkColumnName = rsFks.getString("PKCOLUMN_NAME");
+                        // Skip referencing tables outside the exposed schema and a second key
+                        // from the same table, which would repeat the navigation property name
+                        if (!cachedTables.containsKey(fkTableName.toUpperCase())
+                                || findExportedKey(table, collectionNavigationName(fk)) != null) {
+                            continue;
+                        }
+                        table.exportedKeys.add(fk);
+                    }
+                }
             }
         }
         schemaScanned = true;
@@ -133,10 +175,17 @@ public class DefaultEdmProvider extends CsdlAbstractEdmProvider {
 
             List<CsdlProperty> properties = new ArrayList<>();
             for (ColumnInfo col : table.columns) {
-                properties.add(new CsdlProperty()
+                FullQualifiedName type = mapSqlTypeToEdmType(col.dataType);
+                CsdlProperty property = new CsdlProperty()
                         .setName(col.columnName)
-                        .setType(mapSqlTypeToEdmType(col.dataType))
-                        .setNullable(true));
+                        .setType(type)
+                        .setNullable(true);
+                // Unbounded text columns report Integer.MAX_VALUE as their size
+                if (type.equals(EdmPrimitiveTypeKind.String.getFullQualifiedName())
+                        && col.columnSize > 0 && col.columnSize < Integer.MAX_VALUE) {
+                    property.setMaxLength(col.columnSize);
+                }
+                properties.add(property);
             }
 
             List<CsdlPropertyRef> keys = new ArrayList<>();
@@ -148,10 +197,16 @@ public class DefaultEdmProvider extends CsdlAbstractEdmProvider {
             for (ForeignKeyInfo fk : table.foreignKeys) {
                 String targetTypeName = formatODataTypeName(fk.pkTableName);
                 navProps.add(new CsdlNavigationProperty()
-                        .setName(targetTypeName)
+                        .setName(navigationName(fk))
                         .setType(new FullQualifiedName(NAMESPACE, targetTypeName))
                         .setNullable(true));
             }
+            for (ForeignKeyInfo fk : table.exportedKeys) {
+                navProps.add(new CsdlNavigationProperty()
+                        .setName(collectionNavigationName(fk))
+                        .setType(new FullQualifiedName(NAMESPACE, formatODataTypeName(fk.fkTableName)))
+                        .setCollection(true));
+            }
 
             return new CsdlEntityType()
                     .setName(entityTypeName.getName())
@@ -181,7 +236,13 @@ public class DefaultEdmProvider extends CsdlAbstractEdmProvider {
                 for (ForeignKeyInfo fk : table.foreignKeys) {
                     String targetEntitySet = formatODataEntitySetName(fk.pkTableName);
                     navBindings.add(new CsdlNavigationPropertyBinding()
-                            .setPath(formatODataTypeName(fk.pkTableName))
+                            .setPath(navigationName(fk))
+                            .setTarget(targetEntitySet));
+                }
+                for (ForeignKeyInfo fk : table.exportedKeys) {
+                    String targetEntitySet = formatODataEntitySetName(fk.fkTableName);
+                    navBindings.add(new CsdlNavigationPropertyBinding()
+                            .setPath(collectionNavigationName(fk))
                             .setTarget(targetEntitySet));
                 }
                 csdlEntitySet.setNavigationPropertyBindings(navBindings);
@@ -305,6 +366,90 @@ public class DefaultEdmProvider extends CsdlAbstractEdmProvider {
         }
     }
 
+    /**
+     * Columns of an entity set's table that an INSERT has to give a value: NOT NULL
+     * columns without a default or a generated value.
+     */
+    List<String> getRequiredColumns(String entitySetName) {
+        try {
+            scanDatabaseSchema();
+        } catch (SQLException e) {
+            return List.of();
+        }
+        TableInfo table = findTableForEntitySet(entitySetName);
+        if (table == null) {
+            return List.of();
+        }
+        List<String> required = new ArrayList<>();
+        for (ColumnInfo col : table.columns) {
+            if (col.required) {
+                required.add(col.columnName);
+            }
+        }
+        return required;
+    }
+
+    /**
+     * Foreign key behind a single-valued navigation property of an entity set, or null
+     * when the entity set has no such navigation property.
+     */
+    ForeignKeyInfo getForeignKey(String entitySetName, String navigationPropertyName) {
+        try {
+            scanDatabaseSchema();
+        } catch (SQLException e) {
+            return null;
+        }
+        TableInfo table = findTableForEntitySet(entitySetName);
+        if (table == null) {
+            return null;
+        }
+        for (ForeignKeyInfo fk : table.foreignKeys) {
+            if (navigationName(fk).equals(navigationPropertyName)) {
+                return fk;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Foreign key of the referencing table behind a collection-valued navigation
+     * property of an entity set, or null when the entity set has no such property.
+     */
+    ForeignKeyInfo getReferencingForeignKey(String entitySetName, String navigationPropertyName) {
+        try {
+            scanDatabaseSchema();
+        } catch (SQLException e) {
+            return null;
+        }
+        TableInfo table = findTableForEntitySet(entitySetName);
+        return table == null ? null : findExportedKey(table, navigationPropertyName);
+    }
+
+    private ForeignKeyInfo findExportedKey(TableInfo table, String navigationPropertyName) {
+        for (ForeignKeyInfo fk : table.exportedKeys) {
+            if (collectionNavigationName(fk).equals(navigationPropertyName)) {
+                return fk;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Single-valued navigation property of a foreign key: named after the referenced
+     * entity type, or Parent for a self-reference.
+     */
+    private String navigationName(ForeignKeyInfo fk) {
+        return fk.isSelfReference() ? PARENT_NAVIGATION : formatODataTypeName(fk.pkTableName);
+    }
+
+    /**
+     * Collection navigation property of a referencing foreign key: named after the
+     * referencing entity set, or Children for a self-reference.
+     */
+    private String collectionNavigationName(ForeignKeyInfo fk) {
+        return fk.isSelfReference() ? CHILDREN_NAVIGATION : formatODataEntitySetName(fk.fkTableName);
+    }
+
     private String formatODataEntitySetName(String tableName) {
         String singularName = formatODataTypeName(tableName);
         if (singularName.endsWith("y")) {
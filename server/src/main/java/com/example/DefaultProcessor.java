@@ -7,24 +7,34 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import javax.sql.DataSource;
 import org.apache.olingo.commons.api.data.ContextURL;
 import org.apache.olingo.commons.api.data.Entity;
 import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.data.Link;
 import org.apache.olingo.commons.api.data.Property;
 import org.apache.olingo.commons.api.data.ValueType;
 import org.apache.olingo.commons.api.edm.EdmBindingTarget;
 import org.apache.olingo.commons.api.edm.EdmEntitySet;
 import org.apache.olingo.commons.api.edm.EdmEntityType;
-import org.apache.olingo.commons.api.edm.constants.EdmTypeKind;
 import org.apache.olingo.commons.api.format.ContentType;
 import org.apache.olingo.commons.api.http.HttpHeader;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
 import org.apache.olingo.server.api.OData;
 import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.ODataLibraryException;
 import org.apache.olingo.server.api.ODataRequest;
 import org.apache.olingo.server.api.ODataResponse;
 import org.apache.olingo.server.api.ServiceMetadata;
+import org.apache.olingo.server.api.prefer.Preferences;
+import org.apache.olingo.server.api.prefer.PreferencesApplied;
+import org.apache.olingo.server.api.batch.BatchFacade;
+import org.apache.olingo.server.api.deserializer.batch.BatchOptions;
+import org.apache.olingo.server.api.deserializer.batch.BatchRequestPart;
+import org.apache.olingo.server.api.deserializer.batch.ODataResponsePart;
+import org.apache.olingo.server.api.processor.BatchProcessor;
+import org.apache.olingo.server.api.processor.CountEntityCollectionProcessor;
 import org.apache.olingo.server.api.processor.EntityCollectionProcessor;
 import org.apache.olingo.server.api.processor.EntityProcessor;
 import org.apache.olingo.server.api.serializer.EntityCollectionSerializerOptions;
@@ -36,6 +46,23 @@ import org.apache.olingo.server.api.uri.UriInfo;
 import org.apache.olingo.server.api.uri.UriParameter;
 import org.apache.olingo.server.api.uri.UriResource;
 import org.apache.olingo.server.api.uri.UriResourceEntitySet;
+import org.apache.olingo.server.api.uri.UriResourceNavigation;
+import org.apache.olingo.server.api.uri.UriResourceProperty;
+import org.apache.olingo.server.api.uri.queryoption.ApplyItem;
+import org.apache.olingo.server.api.uri.queryoption.ExpandItem;
+import org.apache.olingo.server.api.uri.queryoption.ExpandOption;
+import org.apache.olingo.server.api.uri.queryoption.OrderByItem;
+import org.apache.olingo.server.api.uri.queryoption.SelectItem;
+import org.apache.olingo.server.api.uri.queryoption.SelectOption;
+import org.apache.olingo.server.api.uri.queryoption.apply.Aggregate;
+import org.apache.olingo.server.api.uri.queryoption.apply.AggregateExpression;
+import org.apache.olingo.server.api.uri.queryoption.apply.BottomTop;
+import org.apache.olingo.server.api.uri.queryoption.apply.Filter;
+import org.apache.olingo.server.api.uri.queryoption.apply.GroupBy;
+import org.apache.olingo.server.api.uri.queryoption.apply.GroupByItem;
+import org.apache.olingo.server.api.uri.queryoption.expression.Expression;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
+import org.apache.olingo.server.api.uri.queryoption.expression.Member;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,7 +77,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 @Component
-public class DefaultProcessor implements EntityCollectionProcessor, EntityProcessor {
+public class DefaultProcessor
+    implements EntityCollectionProcessor, CountEntityCollectionProcessor, EntityProcessor, BatchProcessor {
   @Autowired
   private DataSource dataSource;
 
@@ -64,6 +92,81 @@ public class DefaultProcessor implements EntityCollectionProcessor, EntityProces
 
   private OData odata;
   private ServiceMetadata serviceMetadata;
+  private volatile SqlDialect sqlDialect;
+
+  private static final String ORDER_VALUE_ALIAS = "ORDER_VALUE_";
+  private static final String EXPAND_ROW_ALIAS = "EXPAND_ROW_";
+  private static final String EXPAND_ROOT_ALIAS = "EXPAND_ROOT_";
+  private static final String EXPAND_LEVEL_ALIAS = "EXPAND_LEVEL_";
+
+  @Value("${odata.maxpagesize:0}")
+  private int maxPageSize;
+
+  @Value("${odata.streaming.enabled:true}")
+  private boolean streamingEnabled;
+
+  @Value("${odata.cursor.fetchbytes:1048576}")
+  private int cursorFetchBytes;
+
+  @Value("${odata.plancache.size:256}")
+  private int planCacheSize;
+
+  // exact, estimate or auto; odata.count.strategy.<EntitySet> overrides it per entity set
+  @Value("${odata.count.strategy:exact}")
+  private String countStrategy;
+
+  @Value("${odata.count.estimate.threshold:1000000}")
+  private long countEstimateThreshold;
+
+  @Value("${odata.count.cache.ttl:0}")
+  private long countCacheTtlMillis;
+
+  private volatile CountCache countCache;
+
+  // Set on responses whose count is a planner estimate
+  private static final String COUNT_APPROXIMATE_HEADER = "X-Count-Approximate";
+  private static final int COUNT_CACHE_SIZE = 1024;
+
+  // PUT and PATCH insert the entity when no row has its key, unless sent with If-Match
+  @Value("${odata.update.upsert:true}")
+  private boolean upsert;
+
+  // Rows per bulk insert chunk, each loaded in one transaction
+  @Value("${odata.bulk.batchsize:1000}")
+  private int bulkBatchSize;
+
+  // Load bulk inserts with COPY on PostgreSQL
+  @Value("${odata.bulk.copy:true}")
+  private boolean bulkCopy;
+
+  // Threads running consecutive GET parts of a $batch request (1 runs them in order)
+  @Value("${odata.batch.parallelism:1}")
+  private int batchParallelism;
+
+  // Threads and handlers for parallel $batch reads, shared by all requests and created on first use
+  private java.util.concurrent.ExecutorService batchExecutor;
+  private java.util.concurrent.BlockingQueue<org.apache.olingo.server.api.ODataHandler> batchHandlers;
+  private static final int BATCH_QUEUE_SIZE = 256;
+
+  // $batch change set whose statements run on this thread
+  private final ThreadLocal<ChangeSet> changeSets = new ThreadLocal<>();
+
+  @Value("${odata.expand.maxlevels:100}")
+  private int maxExpandLevels;
+
+  @Value("${odata.search.textconfig:simple}")
+  private String textSearchConfig;
+
+  @Autowired
+  private org.springframework.core.env.Environment environment;
+
+  private volatile QueryPlanCache<EntityQuery> planCache;
+
+  private static final int MIN_FETCH_SIZE = 100;
+  private static final int MAX_FETCH_SIZE = 10000;
+  private static final int UNBOUNDED_COLUMN_BYTES = 256;
+  // Parent keys per $expand query; keeps IN lists well below driver parameter limits
+  private static final int EXPAND_BATCH_SIZE = 500;
 
   @Override
   public void init(OData odata, ServiceMetadata serviceMetadata) {
@@ -75,27 +178,57 @@ public class DefaultProcessor implements EntityCollectionProcessor, EntityProces
   public void readEntityCollection(
       ODataRequest request, ODataResponse response, UriInfo uriInfo, ContentType responseFormat)
       throws SerializerException {
-    List<UriResource> resourcePaths = uriInfo.getUriResourceParts();
-    UriResourceEntitySet uriResourceEntitySet = (UriResourceEntitySet) resourcePaths.getFirst();
-    EdmEntitySet edmEntitySet = uriResourceEntitySet.getEntitySet();
-
     try {
-      EntityCollection entitySet = getData(edmEntitySet, null, uriInfo);
-
+      EdmEntitySet edmEntitySet = resolveEntitySet(uriInfo.getUriResourceParts());
+      if (uriInfo.getApplyOption() != null) {
+        readAggregatedCollection(request, response, uriInfo, edmEntitySet, responseFormat);
+        return;
+      }
+      Integer pageSize = resolvePageSize(request, response);
       ODataSerializer serializer = odata.createSerializer(responseFormat);
 
-      EdmEntityType edmEntityType = edmEntitySet.getEntityType();
-      ContextURL contextUrl = ContextURL.with().entitySet(edmEntitySet).build();
+      // $compute properties are serialized as properties of the entity type
+      EdmEntityType edmEntityType =
+          ComputedProperties.of(uriInfo.getComputeOption()).extend(edmEntitySet.getEntityType(), odata);
+      String selectList = odata.createUriHelper()
+          .buildContextURLSelectList(edmEntityType, uriInfo.getExpandOption(), uriInfo.getSelectOption());
+      ContextURL contextUrl = ContextURL.with().entitySet(edmEntitySet).selectList(selectList).build();
 
       final String id = request.getRawBaseUri() + "/" + edmEntitySet.getName();
-      EntityCollectionSerializerOptions opts = EntityCollectionSerializerOptions.with()
-          .id(id)
-          .contextURL(contextUrl)
-          .count(uriInfo.getCountOption())
-          .build();
-      SerializerResult serializerResult = serializer.entityCollection(serviceMetadata, edmEntityType, entitySet, opts);
-
-      response.setContent(serializerResult.getContent());
+      if (streamingEnabled) {
+        // Rows go straight from the result set to the response body
+        ResultSetEntityIterator entities = openEntityIterator(edmEntitySet, uriInfo, request, response, pageSize);
+        try {
+          EntityCollectionSerializerOptions opts = EntityCollectionSerializerOptions.with()
+              .id(id)
+              .contextURL(contextUrl)
+              .count(uriInfo.getCountOption())
+              .select(uriInfo.getSelectOption())
+              .expand(uriInfo.getExpandOption())
+              .writeContentErrorCallback((context, channel) -> {
+                logger.error("Streaming response failed: {}", context.getException().getMessage(),
+                    context.getException());
+                entities.close();
+              })
+              .build();
+          response.setODataContent(
+              serializer.entityCollectionStreamed(serviceMetadata, edmEntityType, entities, opts).getODataContent());
+        } catch (SerializerException | RuntimeException e) {
+          entities.close();
+          throw e;
+        }
+      } else {
+        EntityCollection entitySet = getData(edmEntitySet, null, uriInfo, request, response, pageSize);
+        EntityCollectionSerializerOptions opts = EntityCollectionSerializerOptions.with()
+            .id(id)
+            .contextURL(contextUrl)
+            .count(uriInfo.getCountOption())
+            .select(uriInfo.getSelectOption())
+            .expand(uriInfo.getExpandOption())
+            .build();
+        SerializerResult serializerResult = serializer.entityCollection(serviceMetadata, edmEntityType, entitySet, opts);
+        response.setContent(serializerResult.getContent());
+      }
       response.setStatusCode(HttpStatusCode.OK.getStatusCode());
       response.setHeader(HttpHeader.CONTENT_TYPE, responseFormat.toContentTypeString());
     } catch (ODataApplicationException ex) {
@@ -112,16 +245,17 @@ public class DefaultProcessor implements EntityCollectionProcessor, EntityProces
   public void readEntity(
       ODataRequest request, ODataResponse response, UriInfo uriInfo, ContentType responseFormat)
       throws ODataApplicationException, SerializerException {
-    List<UriResource> resourcePaths = uriInfo.getUriResourceParts();
-    UriResourceEntitySet uriResourceEntitySet = (UriResourceEntitySet) resourcePaths.getFirst();
-    EdmEntitySet edmEntitySet = uriResourceEntitySet.getEntitySet();
+    List<UriResource> resourcePaths = QueryArguments.navigationPath(uriInfo.getUriResourceParts());
+    EdmEntitySet edmEntitySet = resolveEntitySet(resourcePaths);
 
-    List<UriParameter> keyPredicates = uriResourceEntitySet.getKeyPredicates();
+    List<UriParameter> keyPredicates = QueryArguments.keyPredicatesOf(resourcePaths.getLast());
     EntityCollection entityCollection = getData(edmEntitySet, keyPredicates, uriInfo);
     logger.debug("entityCollection size={}", entityCollection.getEntities().size());
     if (entityCollection.getEntities().isEmpty()) {
       logger.debug("No entity found for key {}", keyPredicates);
-      response.setStatusCode(HttpStatusCode.NOT_FOUND.getStatusCode());
+      // An unset single-valued navigation property is empty rather than missing
+      response.setStatusCode(resourcePaths.getLast() instanceof UriResourceNavigation && keyPredicates.isEmpty()
+          ? HttpStatusCode.NO_CONTENT.getStatusCode() : HttpStatusCode.NOT_FOUND.getStatusCode());
       response.setContent(null);
       return;
     }
@@ -132,13 +266,21 @@ public class DefaultProcessor implements EntityCollectionProcessor, EntityProces
     }
 
     ODataSerializer serializer = odata.createSerializer(responseFormat);
-    EdmEntityType edmEntityType = edmEntitySet.getEntityType();
+    EdmEntityType edmEntityType =
+        ComputedProperties.of(uriInfo.getComputeOption()).extend(edmEntitySet.getEntityType(), odata);
+    String selectList = odata.createUriHelper()
+        .buildContextURLSelectList(edmEntityType, uriInfo.getExpandOption(), uriInfo.getSelectOption());
     ContextURL contextUrl = ContextURL.with()
         .entitySet(edmEntitySet)
         .navOrPropertyPath(entity.getId().toString())
+        .selectList(selectList)
         .build();
 
-    EntitySerializerOptions options = EntitySerializerOptions.with().contextURL(contextUrl).build();
+    EntitySerializerOptions options = EntitySerializerOptions.with()
+        .contextURL(contextUrl)
+        .select(uriInfo.getSelectOption())
+        .expand(uriInfo.getExpandOption())
+        .build();
     SerializerResult serializerResult = serializer.entity(serviceMetadata, edmEntityType, entity, options);
     java.io.InputStream contentStream = serializerResult.getContent();
     String contentStr;
@@ -158,11 +300,42 @@ public class DefaultProcessor implements EntityCollectionProcessor, EntityProces
     response.setHeader(HttpHeader.CONTENT_TYPE, responseFormat.toContentTypeString());
   }
 
+  /**
+   * Effective server page size: the smaller of the configured odata.maxpagesize and
+   * the client's Prefer: odata.maxpagesize, or null when neither is set.
+   */
+  private Integer resolvePageSize(ODataRequest request, ODataResponse response) {
+    Integer pageSize = maxPageSize > 0 ? maxPageSize : null;
+    List<String> preferHeaders = request.getHeaders(HttpHeader.PREFER);
+    Integer preferred = null;
+    if (preferHeaders != null && !preferHeaders.isEmpty()) {
+      Preferences preferences = odata.createPreferences(preferHeaders);
+      preferred = preferences.getMaxPageSize();
+    }
+    if (preferred != null && preferred > 0 && (pageSize == null || preferred < pageSize)) {
+      pageSize = preferred;
+      response.setHeader(HttpHeader.PREFERENCE_APPLIED,
+          PreferencesApplied.with().maxPageSize(preferred).build().toValueString());
+    }
+    return pageSize;
+  }
+
   private EntityCollection getData(
       EdmEntitySet edmEntitySet,
       List<UriParameter> keyParams,
       org.apache.olingo.server.api.uri.UriInfo uriInfo)
       throws org.apache.olingo.server.api.ODataApplicationException {
+    return getData(edmEntitySet, keyParams, uriInfo, null, null, null);
+  }
+
+  private EntityCollection getData(
+      EdmEntitySet edmEntitySet,
+      List<UriParameter> keyParams,
+      org.apache.olingo.server.api.uri.UriInfo uriInfo,
+      ODataRequest request,
+      ODataResponse response,
+      Integer pageSize)
+      throws org.apache.olingo.server.api.ODataApplicationException {
     EntityCollection entityCollection = new EntityCollection();
     logger.debug(
         "getData called: edmEntitySet={}, keyParams={}, uriInfo={}",
@@ -170,406 +343,2482 @@ public class DefaultProcessor implements EntityCollectionProcessor, EntityProces
         (keyParams != null ? keyParams.toString() : "null"),
         (uriInfo != null ? uriInfo.toString() : "null"));
 
-    EdmEntityType edmEntityType = edmEntitySet.getEntityType();
-    String entitySetName = edmEntitySet.getName();
-    String tableName = getTableNameFromEntitySetName(entitySetName);
-
     try (Connection conn = dataSource.getConnection()) {
-      StringBuilder selectColumns = new StringBuilder();
-      StringBuilder joinClause = new StringBuilder();
-      String mainTableAlias = "T"; // Alias for the main table
-      boolean hasExpand = false;
-
-      for (String propertyName : edmEntityType.getPropertyNames()) {
-        org.apache.olingo.commons.api.edm.EdmProperty edmProperty = edmEntityType.getStructuralProperty(propertyName);
-        if (edmProperty != null) {
-          if (!selectColumns.isEmpty()) {
-            selectColumns.append(", ");
-          }
-          selectColumns.append(mainTableAlias).append(".").append(edmProperty.getName());
-        }
-      }
-
-      if (uriInfo.getExpandOption() != null && uriInfo.getExpandOption().getText() != null) {
-        String expandText = uriInfo.getExpandOption().getText();
-        logger.debug("Expand option text: {}", expandText);
-
-        org.apache.olingo.commons.api.edm.EdmNavigationProperty navProp = edmEntityType
-            .getNavigationProperty(expandText);
-        if (navProp != null) {
-          hasExpand = true;
-          EdmBindingTarget target = edmEntitySet.getRelatedBindingTarget(expandText);
-          if (target instanceof EdmEntitySet) {
-            EdmEntitySet targetEntitySet = (EdmEntitySet) target;
-            String targetTableName = getTableNameFromEntitySetName(targetEntitySet.getName());
-            String targetTableAlias = "J";
-
-            org.apache.olingo.commons.api.edm.EdmEntityType targetEntityType = targetEntitySet.getEntityType();
-            for (String propertyName : targetEntityType.getPropertyNames()) {
-              org.apache.olingo.commons.api.edm.EdmProperty targetEdmProperty = targetEntityType
-                  .getStructuralProperty(propertyName);
-              if (targetEdmProperty != null) {
-                selectColumns.append(", ");
-                selectColumns
-                    .append(targetTableAlias)
-                    .append(".")
-                    .append(targetEdmProperty.getName())
-                    .append(" AS \"")
-                    .append(navProp.getName())
-                    .append("_")
-                    .append(targetEdmProperty.getName())
-                    .append("\"");
-              }
-            }
+      QueryArguments arguments = QueryArguments.collect(edmEntitySet, keyParams, uriInfo, pageSize);
+      EntityQuery query = getEntityQuery(conn, edmEntitySet, uriInfo, arguments);
+      if (uriInfo.getCountOption() != null && uriInfo.getCountOption().getValue()) {
+        entityCollection.setCount(
+            applyCount(response, countEntities(conn, edmEntitySet, uriInfo, arguments)));
+      }
 
-            String foreignKeyColumn = null;
-            for (String propName : edmEntityType.getPropertyNames()) {
-              if (propName.equalsIgnoreCase(navProp.getName() + "Id")
-                  || propName.equalsIgnoreCase(navProp.getName() + "ID")) {
-                foreignKeyColumn = propName;
-                break;
-              }
-            }
-            if (foreignKeyColumn == null) {
-              foreignKeyColumn = navProp.getName() + "ID"; // fallback
-            }
-            joinClause
-                .append(" LEFT JOIN ")
-                .append(targetTableName)
-                .append(" ")
-                .append(targetTableAlias)
-                .append(" ON ")
-                .append(mainTableAlias)
-                .append(".")
-                .append(foreignKeyColumn)
-                .append(" = ")
-                .append(targetTableAlias)
-                .append(".ID");
+      try (PreparedStatement stmt = prepareEntityQuery(conn, query, arguments);
+          ResultSet rs = stmt.executeQuery()) {
+        int rowCount = 0;
+        List<Object> lastOrderValues = null;
+        while (rs.next()) {
+          rowCount++;
+          if (query.serverPaged && rowCount > pageSize) {
+            // The look-ahead row only tells us there is another page
+            entityCollection.setNext(buildNextLink(request, uriInfo, SkipToken.of(lastOrderValues), pageSize));
+            break;
+          }
+          if (query.serverPaged && rowCount == pageSize) {
+            lastOrderValues = readOrderValues(rs, query);
           }
+          entityCollection.getEntities().add(query.rowMapper.map(rs));
+        }
+        if (rowCount == 0) {
+          logger.debug("getData: No rows found for SQL: {}", query.sql);
         }
       }
+      expandEntities(conn, entityCollection.getEntities(), query.expands, arguments);
+    } catch (SQLException e) {
+      logger.error("getData: SQLException: {}", e.getMessage(), e);
+      throw new RuntimeException("Database error: " + e.getMessage(), e);
+    }
+    return entityCollection;
+  }
 
-      StringBuilder sql = new StringBuilder();
-      sql.append("SELECT ")
-          .append(selectColumns)
-          .append(" FROM ")
-          .append(tableName)
-          .append(" ")
-          .append(mainTableAlias);
-      sql.append(joinClause);
-      boolean hasWhere = false;
-      String idCol = mainTableAlias + ".ID";
+  /**
+   * The compiled plan of an entity set read: its SQL, the binders for its parameters
+   * and what is needed to map its rows back to entities. Plans depend only on the
+   * query shape and are shared between requests through the plan cache.
+   */
+  private static class EntityQuery {
+    EdmEntitySet edmEntitySet;
+    String tableName;
+    String sql;
+    final List<ParameterBinder> params = new ArrayList<>();
+    List<org.apache.olingo.commons.api.edm.EdmProperty> selectedProperties;
+    RowMapper rowMapper;
+    List<OrderColumn> orderColumns;
+    int orderValueColumn;
+    List<ExpandNode> expands;
+    boolean serverPaged;
+  }
 
-      if (keyParams != null && !keyParams.isEmpty()) {
-        sql.append(" WHERE ").append(idCol).append(" = ?");
-        hasWhere = true;
+  /**
+   * The plan for a read, taken from the plan cache when a request of the same shape
+   * was planned before.
+   */
+  private EntityQuery getEntityQuery(
+      Connection conn, EdmEntitySet edmEntitySet, UriInfo uriInfo, QueryArguments arguments)
+      throws SQLException, ODataApplicationException {
+    QueryPlanCache<EntityQuery> cache = entityQueryCache();
+    EntityQuery query = cache.get(arguments.getShape());
+    if (query == null) {
+      query = buildEntityQuery(conn, edmEntitySet, uriInfo, arguments);
+      cache.put(arguments.getShape(), query);
+    }
+    return query;
+  }
+
+  /**
+   * The plan cache, for publishing its hit and miss counts.
+   */
+  QueryPlanCache<?> getPlanCache() {
+    return entityQueryCache();
+  }
+
+  private QueryPlanCache<EntityQuery> entityQueryCache() {
+    QueryPlanCache<EntityQuery> cache = planCache;
+    if (cache == null) {
+      synchronized (this) {
+        cache = planCache;
+        if (cache == null) {
+          cache = new QueryPlanCache<>(planCacheSize);
+          planCache = cache;
+        }
       }
+    }
+    return cache;
+  }
 
-      List<Object> filterParams = new ArrayList<>();
-      if (uriInfo.getFilterOption() != null) {
-        String filterExpression = uriInfo.getFilterOption().getText();
-        java.util.regex.Matcher m = java.util.regex.Pattern.compile("(\\w+)\\s+(gt|lt|eq)\\s+([\\w.'0-9]+)")
-            .matcher(filterExpression);
-        if (m.matches()) {
-          String property = m.group(1);
-          String operator = m.group(2);
-          String value = m.group(3);
-
-          if (edmEntityType.getProperty(property) != null) {
-            String sqlOperator;
-            switch (operator) {
-              case "gt":
-                sqlOperator = ">";
-                break;
-              case "lt":
-                sqlOperator = "<";
-                break;
-              case "eq":
-                sqlOperator = "=";
-                break;
-              default:
-                throw new ODataApplicationException(
-                    "Unsupported operator: " + operator, HttpStatusCode.BAD_REQUEST.getStatusCode(), null);
-            }
+  /**
+   * Build the SELECT for an entity set read: $select columns plus $expand foreign keys,
+   * $filter, $orderby, keyset seek for $skiptoken and the row window. The plan only
+   * depends on the shape of {@code arguments}; their values are bound per request.
+   */
+  private EntityQuery buildEntityQuery(
+      Connection conn,
+      EdmEntitySet edmEntitySet,
+      UriInfo uriInfo,
+      QueryArguments arguments)
+      throws SQLException, ODataApplicationException {
+    EntityQuery query = new EntityQuery();
+    EdmEntityType edmEntityType = edmEntitySet.getEntityType();
+    query.edmEntitySet = edmEntitySet;
+    query.tableName = getTableNameFromEntitySetName(edmEntitySet.getName());
+
+    StringBuilder selectColumns = new StringBuilder();
+    QueryJoins joins = new QueryJoins();
+    String mainTableAlias = "T"; // Alias for the main table
+
+    query.expands = planExpand(edmEntitySet, uriInfo.getExpandOption(), arguments);
+    query.selectedProperties = getSelectedProperties(edmEntityType, uriInfo.getSelectOption());
+    for (ExpandNode node : query.expands) {
+      // Expanding needs the join column even when $select leaves it out
+      org.apache.olingo.commons.api.edm.EdmProperty joinProperty =
+          edmEntityType.getStructuralProperty(node.parentProperty);
+      if (joinProperty != null && !query.selectedProperties.contains(joinProperty)) {
+        query.selectedProperties.add(joinProperty);
+      }
+    }
+    for (org.apache.olingo.commons.api.edm.EdmProperty edmProperty : query.selectedProperties) {
+      if (!selectColumns.isEmpty()) {
+        selectColumns.append(", ");
+      }
+      selectColumns.append(mainTableAlias).append(".").append(edmProperty.getName());
+    }
 
-            sql.append(hasWhere ? " AND " : " WHERE ");
-            sql.append(mainTableAlias).append(".").append(property).append(" ").append(sqlOperator).append(" ?");
-            hasWhere = true;
+    // $compute properties are evaluated in the select list, after the declared ones
+    java.util.Map<String, org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind> computedKinds =
+        new java.util.LinkedHashMap<>();
+    java.util.Set<String> selectedNames = getSelectedNames(uriInfo.getSelectOption());
+    for (java.util.Map.Entry<String, org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind> computed
+        : ComputedProperties.of(uriInfo.getComputeOption()).getKinds().entrySet()) {
+      if (selectedNames == null || selectedNames.contains(computed.getKey())) {
+        Expression expression = arguments.getComputedExpression(computed.getKey());
+        selectColumns.append(selectColumns.isEmpty() ? "" : ", ").append(translateExpression(expression,
+            new ODataSqlExpressionVisitor(mainTableAlias, edmEntitySet, joins, query.params, arguments,
+                arguments.getComputeOffset(expression))));
+        computedKinds.put(computed.getKey(), computed.getValue());
+      }
+    }
 
-            try {
-              filterParams.add(Double.parseDouble(value));
-            } catch (NumberFormatException e) {
-              filterParams.add(value.replace("'", ""));
-            }
-          } else {
-            logger.warn("Filter property '{}' not found in entity type '{}'", property, edmEntityType.getName());
-          }
-        } else {
-          logger.warn("Unsupported filter expression: {}", filterExpression);
+    query.rowMapper = RowMapper.forProperties(
+        edmEntitySet.getName(), edmEntityType, query.selectedProperties, computedKinds, 1);
+
+    List<OrderColumn> orderColumns = new ArrayList<>();
+    if (uriInfo.getOrderByOption() != null) {
+      List<OrderByItem> items = uriInfo.getOrderByOption().getOrders();
+      for (int i = 0; i < items.size(); i++) {
+        orderColumns.add(resolveOrderColumn(items.get(i), edmEntitySet, mainTableAlias, joins,
+            arguments, arguments.getOrderByOffset(i)));
+      }
+    }
+    boolean hasOrderBy = !orderColumns.isEmpty();
+    query.orderColumns = orderColumns;
+
+    List<Object> skipTokenValues = arguments.getSkipTokenValues();
+    query.serverPaged = arguments.isServerPaged();
+    if (hasOrderBy || arguments.getLimit() != null || arguments.getOffset() != null || skipTokenValues != null) {
+      // Key columns make the order total, so row windows and keyset seeks are stable
+      appendKeyOrderColumns(orderColumns, edmEntityType, mainTableAlias);
+    }
+    query.orderValueColumn = 1 + query.rowMapper.getColumnCount();
+    if (query.serverPaged) {
+      // Order values of the last row on a page become the next $skiptoken
+      for (int i = 0; i < orderColumns.size(); i++) {
+        selectColumns.append(", ").append(orderColumns.get(i).expression)
+            .append(" AS ").append(ORDER_VALUE_ALIAS).append(i);
+        query.params.addAll(orderColumns.get(i).params);
+      }
+    }
+
+    // The WHERE clause may add joins for navigation paths, so it is written first
+    StringBuilder where = new StringBuilder();
+    List<ParameterBinder> whereParams = new ArrayList<>();
+    boolean hasWhere = appendWhereClause(where, whereParams, edmEntitySet, arguments.getKeyPredicates(), uriInfo,
+        mainTableAlias, arguments, joins, getDialect(conn));
+
+    StringBuilder sql = new StringBuilder();
+    sql.append("SELECT ")
+        .append(selectColumns)
+        .append(" FROM ")
+        .append(query.tableName)
+        .append(" ")
+        .append(mainTableAlias);
+    sql.append(joins.getJoinClause()).append(where);
+    query.params.addAll(whereParams);
+
+    if (skipTokenValues != null) {
+      if (skipTokenValues.size() != orderColumns.size()) {
+        throw new ODataApplicationException("$skiptoken does not match the requested ordering",
+            HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+      }
+      // A null binder stands for a NULL token value, which the shape fixes per plan
+      List<ParameterBinder> tokenValues = new ArrayList<>();
+      for (int i = 0; i < orderColumns.size(); i++) {
+        int index = i;
+        org.apache.olingo.commons.api.edm.EdmType type = orderColumns.get(i).type;
+        tokenValues.add(skipTokenValues.get(i) == null ? null : args -> {
+          Object raw = args.getSkipTokenValues().get(index);
+          return type == null ? raw : convertKeyValue(raw.toString(), type);
+        });
+      }
+      sql.append(hasWhere ? " AND " : " WHERE ");
+      appendKeysetPredicate(sql, query.params, orderColumns, tokenValues);
+    }
+
+    if (!orderColumns.isEmpty()) {
+      appendOrderBy(sql, query.params, orderColumns);
+    }
+
+    getDialect(conn).appendLimitOffset(sql, query.params,
+        arguments.getLimit() != null ? QueryArguments::getLimit : null,
+        arguments.getOffset() != null ? QueryArguments::getOffset : null);
+    query.sql = sql.toString();
+    logger.debug("getData: Final SQL: {}", query.sql);
+    return query;
+  }
+
+  private PreparedStatement prepareEntityQuery(Connection conn, EntityQuery query, QueryArguments arguments)
+      throws SQLException {
+    PreparedStatement stmt = conn.prepareStatement(query.sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    try {
+      for (int i = 0; i < query.params.size(); i++) {
+        setParameterSafely(stmt, i + 1, query.params.get(i).bind(arguments));
+      }
+    } catch (SQLException e) {
+      stmt.close();
+      throw e;
+    }
+    return stmt;
+  }
+
+  private List<Object> readOrderValues(ResultSet rs, EntityQuery query) throws SQLException {
+    List<Object> values = new ArrayList<>();
+    for (int i = 0; i < query.orderColumns.size(); i++) {
+      values.add(rs.getObject(query.orderValueColumn + i));
+    }
+    return values;
+  }
+
+  /**
+   * Streams the rows of an open entity query to the serializer one entity at a time.
+   * The iterator owns the connection, statement and result set and closes them once
+   * the last row is read or serialization fails, so only the current row is held in
+   * memory.
+   */
+  private class ResultSetEntityIterator extends org.apache.olingo.commons.api.data.EntityIterator
+      implements AutoCloseable {
+    private final Connection conn;
+    private final PreparedStatement stmt;
+    private final ResultSet rs;
+    private final EntityQuery query;
+    private final QueryArguments arguments;
+    private final ODataRequest request;
+    private final UriInfo uriInfo;
+    private final Integer pageSize;
+    private final Integer count;
+    private final java.util.ArrayDeque<Entity> buffer = new java.util.ArrayDeque<>();
+    private boolean closed;
+    private int rowCount;
+    private List<Object> lastOrderValues;
+    private java.net.URI nextLink;
+
+    ResultSetEntityIterator(Connection conn, PreparedStatement stmt, ResultSet rs, EntityQuery query,
+        QueryArguments arguments, ODataRequest request, UriInfo uriInfo, Integer pageSize, Integer count) {
+      this.conn = conn;
+      this.stmt = stmt;
+      this.rs = rs;
+      this.query = query;
+      this.arguments = arguments;
+      this.request = request;
+      this.uriInfo = uriInfo;
+      this.pageSize = pageSize;
+      this.count = count;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (buffer.isEmpty() && !closed) {
+        fill();
+      }
+      return !buffer.isEmpty();
+    }
+
+    @Override
+    public Entity next() {
+      if (!hasNext()) {
+        throw new java.util.NoSuchElementException();
+      }
+      return buffer.poll();
+    }
+
+    /**
+     * Read the next row, or the next batch of rows when entities are expanded so the
+     * related entities of the whole batch are fetched together.
+     */
+    private void fill() {
+      try {
+        int batchSize = query.expands.isEmpty() ? 1 : EXPAND_BATCH_SIZE;
+        List<Entity> rows = new ArrayList<>(batchSize);
+        boolean more = true;
+        while (rows.size() < batchSize && (more = readRow(rows))) {
+          // keep reading until the batch is full
         }
+        expandEntities(conn, rows, query.expands, arguments);
+        buffer.addAll(rows);
+        if (!more) {
+          close();
+        }
+      } catch (SQLException e) {
+        logger.error("Streaming read failed: {}", e.getMessage(), e);
+        close();
+        throw new org.apache.olingo.commons.api.ex.ODataRuntimeException("Database error: " + e.getMessage(), e);
+      } catch (RuntimeException e) {
+        // Mapping or expanding a row failed; the serializer will not close the iterator
+        logger.error("Streaming read failed: {}", e.getMessage(), e);
+        close();
+        throw e;
       }
+    }
 
-      if (uriInfo.getOrderByOption() != null) {
-        String orderByExpression = uriInfo.getOrderByOption().getText();
-        String[] parts = orderByExpression.split("\\s+");
-        if (parts.length > 0) {
-          String property = parts[0];
-          if (edmEntityType.getProperty(property) != null) {
-            String direction = parts.length > 1 ? parts[1].toUpperCase() : "ASC";
-            if (direction.equals("ASC") || direction.equals("DESC")) {
-              sql.append(" ORDER BY ").append(mainTableAlias).append(".").append(property).append(" ")
-                  .append(direction);
-            }
-          } else {
-            logger.warn("OrderBy property '{}' not found in entity type '{}'", property, edmEntityType.getName());
-          }
+    /**
+     * @return false once the result or the server page is exhausted
+     */
+    private boolean readRow(List<Entity> rows) throws SQLException {
+      if (!rs.next()) {
+        return false;
+      }
+      rowCount++;
+      if (query.serverPaged && rowCount > pageSize) {
+        // The look-ahead row only tells us there is another page
+        nextLink = buildNextLink(request, uriInfo, SkipToken.of(lastOrderValues), pageSize);
+        return false;
+      }
+      if (query.serverPaged && rowCount == pageSize) {
+        lastOrderValues = readOrderValues(rs, query);
+      }
+      rows.add(query.rowMapper.map(rs));
+      return true;
+    }
+
+    /** Only known once the rows are consumed; the serializer writes it after them. */
+    @Override
+    public java.net.URI getNext() {
+      return nextLink;
+    }
+
+    @Override
+    public Integer getCount() {
+      return count;
+    }
+
+    @Override
+    public void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      logger.debug("Streamed {} rows for {}", rowCount, query.edmEntitySet.getName());
+      closeQuietly(rs, stmt);
+      endCursorRead(conn);
+    }
+  }
+
+  /**
+   * Open an entity query whose rows are read while the response is written. The
+   * caller hands the iterator to the serializer, which closes it by exhausting it.
+   */
+  private ResultSetEntityIterator openEntityIterator(
+      EdmEntitySet edmEntitySet, UriInfo uriInfo, ODataRequest request, ODataResponse response,
+      Integer pageSize) throws ODataApplicationException {
+    Connection conn = null;
+    PreparedStatement stmt = null;
+    try {
+      conn = dataSource.getConnection();
+      QueryArguments arguments = QueryArguments.collect(edmEntitySet, null, uriInfo, pageSize);
+      EntityQuery query = getEntityQuery(conn, edmEntitySet, uriInfo, arguments);
+      Integer count = null;
+      if (uriInfo.getCountOption() != null && uriInfo.getCountOption().getValue()) {
+        count = applyCount(response, countEntities(conn, edmEntitySet, uriInfo, arguments));
+      }
+      if (cursorFetchBytes > 0) {
+        beginCursorRead(conn);
+      }
+      stmt = prepareEntityQuery(conn, query, arguments);
+      if (cursorFetchBytes > 0) {
+        stmt.setFetchSize(estimateFetchSize(query));
+      }
+      ResultSet rs = stmt.executeQuery();
+      return new ResultSetEntityIterator(conn, stmt, rs, query, arguments, request, uriInfo, pageSize, count);
+    } catch (SQLException e) {
+      closeQuietly(stmt);
+      endCursorRead(conn);
+      logger.error("openEntityIterator: SQLException: {}", e.getMessage(), e);
+      throw new ODataApplicationException("Database error: " + e.getMessage(),
+          HttpStatusCode.INTERNAL_SERVER_ERROR.getStatusCode(), Locale.ENGLISH, e);
+    } catch (ODataApplicationException | RuntimeException e) {
+      closeQuietly(stmt);
+      endCursorRead(conn);
+      throw e;
+    }
+  }
+
+  /**
+   * Put a connection into cursor mode: a read-only transaction, so drivers such as
+   * PostgreSQL's fetch rows in chunks of the statement's fetch size instead of
+   * reading the whole result before the first row is returned.
+   */
+  private void beginCursorRead(Connection conn) throws SQLException {
+    conn.setAutoCommit(false);
+    conn.setReadOnly(true);
+  }
+
+  /**
+   * End the read transaction started by {@link #beginCursorRead}, restore the pooled
+   * connection's defaults and close it.
+   */
+  private void endCursorRead(Connection conn) {
+    if (conn == null) {
+      return;
+    }
+    try {
+      if (!conn.getAutoCommit()) {
+        // Nothing was written, and rollback also clears a transaction aborted by an error
+        conn.rollback();
+        conn.setAutoCommit(true);
+      }
+      if (conn.isReadOnly()) {
+        conn.setReadOnly(false);
+      }
+    } catch (SQLException e) {
+      logger.warn("Could not end cursor read: {}", e.getMessage());
+    }
+    closeQuietly(conn);
+  }
+
+  /**
+   * Rows per round trip so one fetch holds about odata.cursor.fetchbytes of row data,
+   * estimated from the widths of the selected columns.
+   */
+  private int estimateFetchSize(EntityQuery query) {
+    long rowBytes = 0;
+    for (org.apache.olingo.commons.api.edm.EdmProperty edmProperty : query.selectedProperties) {
+      rowBytes += estimateColumnBytes(edmProperty);
+    }
+    rowBytes += 8L * query.orderColumns.size();
+    long fetchSize = cursorFetchBytes / Math.max(rowBytes, 1);
+    return (int) Math.max(MIN_FETCH_SIZE, Math.min(MAX_FETCH_SIZE, fetchSize));
+  }
+
+  private int estimateColumnBytes(org.apache.olingo.commons.api.edm.EdmProperty edmProperty) {
+    // Per-value overhead of the wire format and the driver's row buffer
+    int overhead = 8;
+    if (edmProperty == null) {
+      return overhead;
+    }
+    switch (edmProperty.getType().getName()) {
+      case "Boolean":
+      case "Byte":
+      case "SByte":
+        return overhead + 1;
+      case "Int16":
+        return overhead + 2;
+      case "Int32":
+      case "Date":
+      case "Single":
+        return overhead + 4;
+      case "Int64":
+      case "Double":
+      case "DateTimeOffset":
+      case "TimeOfDay":
+        return overhead + 8;
+      case "Decimal":
+        return overhead + 16;
+      case "String":
+      case "Binary":
+        Integer maxLength = edmProperty.getMaxLength();
+        // Variable-width values are rarely full; assume half the declared width
+        return overhead + (maxLength != null ? Math.max(maxLength / 2, 1) : UNBOUNDED_COLUMN_BYTES);
+      default:
+        return overhead + 16;
+    }
+  }
+
+  private void closeQuietly(AutoCloseable... resources) {
+    for (AutoCloseable resource : resources) {
+      if (resource != null) {
+        try {
+          resource.close();
+        } catch (Exception e) {
+          logger.warn("Could not close {}: {}", resource, e.getMessage());
         }
       }
+    }
+  }
+
+  /**
+   * One navigation property of $expand: the query that loads the related entities
+   * of a batch of parents and the nested expansions of those entities.
+   */
+  private static class ExpandNode {
+    String navigationName;
+    // True for a collection read through the foreign key of the related table
+    boolean collection;
+    // Parent property holding the join value: its foreign key, or its key for a collection
+    String parentProperty;
+    // Related entity property matched against parentProperty
+    String relatedProperty;
+    // SQL up to "relatedProperty IN (" and the parameters written before the IN list
+    String sqlPrefix;
+    List<ParameterBinder> prefixParams = new ArrayList<>();
+    // SQL closing the IN list: nested $filter, per-parent row window and ordering
+    String sqlSuffix;
+    List<ParameterBinder> suffixParams = new ArrayList<>();
+    RowMapper rowMapper;
+    List<ExpandNode> children;
+    // Depth of a $levels expansion of a self-referencing navigation property, or null
+    ParameterBinder levels;
+  }
 
-      try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
-        int paramCount = 0;
-        if (keyParams != null && !keyParams.isEmpty()) {
-          paramCount++;
-          String keyCol = edmEntityType.getKeyPropertyRefs().getFirst().getName();
-          Object keyValue = convertKeyValue(keyParams.getFirst().getText(), edmEntityType.getProperty(keyCol));
-          setParameterSafely(stmt, paramCount, keyValue);
+  /**
+   * Plan the expansion tree of an $expand option. Each navigation property is
+   * resolved through the foreign key read from the database schema: the parent's
+   * own for a single entity, the related table's for a collection. Nested $select,
+   * $filter and $orderby go into the related entities' query, and a nested $top or
+   * $skip on a collection becomes a ROW_NUMBER() window per parent.
+   */
+  private List<ExpandNode> planExpand(EdmEntitySet sourceEntitySet, ExpandOption expandOption,
+      QueryArguments arguments) throws ODataApplicationException {
+    List<ExpandNode> nodes = new ArrayList<>();
+    if (expandOption == null) {
+      return nodes;
+    }
+    EdmEntityType sourceType = sourceEntitySet.getEntityType();
+    for (ExpandItem item : expandOption.getExpandItems()) {
+      List<org.apache.olingo.commons.api.edm.EdmNavigationProperty> navProps = new ArrayList<>();
+      if (item.isStar()) {
+        for (String navName : sourceType.getNavigationPropertyNames()) {
+          navProps.add(sourceType.getNavigationProperty(navName));
         }
-        for (Object param : filterParams) {
-          paramCount++;
-          setParameterSafely(stmt, paramCount, param);
+      } else if (item.getResourcePath() != null && !item.isRef()
+          && item.getResourcePath().getUriResourceParts().size() == 1
+          && item.getResourcePath().getUriResourceParts().getFirst() instanceof UriResourceNavigation) {
+        navProps.add(((UriResourceNavigation) item.getResourcePath().getUriResourceParts().getFirst()).getProperty());
+      } else {
+        throw new ODataApplicationException("Unsupported $expand item",
+            HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+      }
+
+      for (org.apache.olingo.commons.api.edm.EdmNavigationProperty navProp : navProps) {
+        NavigationResolver.Join join = resolveNavigation(sourceEntitySet, navProp);
+        EdmEntitySet targetEntitySet = join.targetEntitySet;
+        ExpandNode node = new ExpandNode();
+        node.navigationName = navProp.getName();
+        node.collection = navProp.isCollection();
+        node.parentProperty = join.parentColumn;
+        node.relatedProperty = join.relatedColumn;
+        node.children = planExpand(targetEntitySet, item.getExpandOption(), arguments);
+        if (item.getLevelsOption() != null) {
+          planRecursiveExpandQuery(node, sourceEntitySet, targetEntitySet, item,
+              arguments.getExpandOffsets(item), arguments);
+        } else {
+          planExpandQuery(node, targetEntitySet, item, arguments.getExpandOffsets(item), arguments);
         }
+        nodes.add(node);
+      }
+    }
+    return nodes;
+  }
 
-        ResultSet rs = stmt.executeQuery();
-        logger.debug("getData: Final SQL: {}", sql);
-        logger.debug(
-            "getData: Executing SQL: {}, param={}",
-            sql,
-            (keyParams != null && !keyParams.isEmpty() ? keyParams.getFirst().getText() : "none"));
+  private void planExpandQuery(ExpandNode node, EdmEntitySet targetEntitySet, ExpandItem item,
+      QueryArguments.ExpandOffsets offsets, QueryArguments arguments) throws ODataApplicationException {
+    EdmEntityType targetType = targetEntitySet.getEntityType();
+    String alias = "X";
+
+    List<org.apache.olingo.commons.api.edm.EdmProperty> properties =
+        getSelectedProperties(targetType, item.getSelectOption());
+    // Grouping and the nested expansions need their join columns even when $select leaves them out
+    List<String> joinColumns = new ArrayList<>();
+    joinColumns.add(node.relatedProperty);
+    for (ExpandNode child : node.children) {
+      joinColumns.add(child.parentProperty);
+    }
+    for (String joinColumn : joinColumns) {
+      org.apache.olingo.commons.api.edm.EdmProperty joinProperty = targetType.getStructuralProperty(joinColumn);
+      if (joinProperty != null && !properties.contains(joinProperty)) {
+        properties.add(joinProperty);
+      }
+    }
+    node.rowMapper = RowMapper.forProperties(targetEntitySet.getName(), targetType, properties, 1);
+
+    QueryJoins joins = new QueryJoins();
+    List<OrderColumn> orderColumns = new ArrayList<>();
+    if (item.getOrderByOption() != null) {
+      List<OrderByItem> orders = item.getOrderByOption().getOrders();
+      for (int i = 0; i < orders.size(); i++) {
+        orderColumns.add(resolveOrderColumn(orders.get(i), targetEntitySet, alias, joins,
+            arguments, offsets.orderBy.get(i)));
+      }
+    }
+    if (node.collection) {
+      appendKeyOrderColumns(orderColumns, targetType, alias);
+    }
+    List<ParameterBinder> filterParams = new ArrayList<>();
+    String filterSql = null;
+    if (item.getFilterOption() != null && item.getFilterOption().getExpression() != null) {
+      filterSql = translateExpression(item.getFilterOption().getExpression(),
+          new ODataSqlExpressionVisitor(alias, targetEntitySet, joins, filterParams, arguments, offsets.filter));
+    }
+    boolean windowed = node.collection && (offsets.top >= 0 || offsets.skip >= 0);
 
-        boolean foundAny = false;
-        while (rs.next()) {
-          Entity currentEntity = new Entity();
-          for (String propertyName : edmEntityType.getPropertyNames()) {
-            org.apache.olingo.commons.api.edm.EdmProperty edmProperty = edmEntityType
-                .getStructuralProperty(propertyName);
-            if (edmProperty != null) {
-              Object value = getResultSetValue(rs, propertyName, edmProperty.getType());
-              if (value != null) {
-                currentEntity.addProperty(new Property(null, propertyName, ValueType.PRIMITIVE, value));
+    StringBuilder columns = new StringBuilder();
+    StringBuilder windowColumns = new StringBuilder();
+    for (int i = 0; i < properties.size(); i++) {
+      columns.append(i > 0 ? ", " : "").append(alias).append(".").append(properties.get(i).getName());
+      windowColumns.append(i > 0 ? ", " : "").append("R.").append(properties.get(i).getName());
+    }
+    StringBuilder prefix = new StringBuilder("SELECT ");
+    if (windowed) {
+      prefix.append(windowColumns).append(" FROM (SELECT ").append(columns)
+          .append(", ROW_NUMBER() OVER (PARTITION BY ").append(alias).append(".").append(node.relatedProperty);
+      appendOrderBy(prefix, node.prefixParams, orderColumns);
+      prefix.append(") AS ").append(EXPAND_ROW_ALIAS);
+    } else {
+      prefix.append(columns);
+    }
+    prefix.append(" FROM ").append(getTableNameFromEntitySetName(targetEntitySet.getName()))
+        .append(" ").append(alias).append(joins.getJoinClause())
+        .append(" WHERE ").append(alias).append(".").append(node.relatedProperty).append(" IN (");
+    node.sqlPrefix = prefix.toString();
+
+    StringBuilder suffix = new StringBuilder(")");
+    if (filterSql != null) {
+      suffix.append(" AND ").append(filterSql);
+      node.suffixParams.addAll(filterParams);
+    }
+    if (windowed) {
+      suffix.append(") R WHERE R.").append(EXPAND_ROW_ALIAS).append(" > ?");
+      node.suffixParams.add(args -> offsets.skip >= 0 ? args.getLiteral(offsets.skip) : 0);
+      if (offsets.top >= 0) {
+        suffix.append(" AND R.").append(EXPAND_ROW_ALIAS).append(" <= ?");
+        node.suffixParams.add(args -> (offsets.skip >= 0 ? (Integer) args.getLiteral(offsets.skip) : 0)
+            + (Integer) args.getLiteral(offsets.top));
+      }
+      suffix.append(" ORDER BY R.").append(EXPAND_ROW_ALIAS);
+    } else if (node.collection) {
+      appendOrderBy(suffix, node.suffixParams, orderColumns);
+    }
+    node.sqlSuffix = suffix.toString();
+  }
+
+  /**
+   * Plan a $levels expansion of a self-referencing navigation property as one
+   * WITH RECURSIVE query: the anchor reads the first level for the batch of parents
+   * and each recursive step the next level, up to $levels or odata.expand.maxlevels
+   * for max. Rows carry the first level's join value as their root and their level,
+   * so each parent's tree is assembled from distinct entities even if the data
+   * contains a cycle.
+   */
+  private void planRecursiveExpandQuery(ExpandNode node, EdmEntitySet sourceEntitySet,
+      EdmEntitySet targetEntitySet, ExpandItem item, QueryArguments.ExpandOffsets offsets,
+      QueryArguments arguments) throws ODataApplicationException {
+    if (!targetEntitySet.getName().equals(sourceEntitySet.getName())) {
+      throw new ODataApplicationException("$levels requires a self-referencing navigation property",
+          HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+    }
+    if (item.getFilterOption() != null || item.getOrderByOption() != null
+        || item.getTopOption() != null || item.getSkipOption() != null) {
+      throw new ODataApplicationException("$levels cannot be combined with $filter, $orderby, $top or $skip",
+          HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+    }
+    EdmEntityType targetType = targetEntitySet.getEntityType();
+    List<org.apache.olingo.commons.api.edm.EdmProperty> properties =
+        getSelectedProperties(targetType, item.getSelectOption());
+    List<String> joinColumns = new ArrayList<>();
+    joinColumns.add(node.relatedProperty);
+    joinColumns.add(node.parentProperty);
+    for (ExpandNode child : node.children) {
+      joinColumns.add(child.parentProperty);
+    }
+    for (String joinColumn : joinColumns) {
+      org.apache.olingo.commons.api.edm.EdmProperty joinProperty = targetType.getStructuralProperty(joinColumn);
+      if (joinProperty != null && !properties.contains(joinProperty)) {
+        properties.add(joinProperty);
+      }
+    }
+    node.rowMapper = RowMapper.forProperties(targetEntitySet.getName(), targetType, properties, 1);
+    node.levels = args -> {
+      int levels = (Integer) args.getLiteral(offsets.levels);
+      return levels < 0 ? maxExpandLevels : Math.min(levels, maxExpandLevels);
+    };
+
+    String table = getTableNameFromEntitySetName(targetEntitySet.getName());
+    StringBuilder names = new StringBuilder();
+    StringBuilder columns = new StringBuilder();
+    StringBuilder cteColumns = new StringBuilder();
+    for (int i = 0; i < properties.size(); i++) {
+      String name = properties.get(i).getName();
+      names.append(name).append(", ");
+      columns.append("X.").append(name).append(", ");
+      cteColumns.append("H.").append(name).append(", ");
+    }
+    node.sqlPrefix = "WITH RECURSIVE H (" + names + EXPAND_ROOT_ALIAS + ", " + EXPAND_LEVEL_ALIAS + ") AS ("
+        + "SELECT " + columns + "X." + node.relatedProperty + ", 1 FROM " + table + " X"
+        + " WHERE X." + node.relatedProperty + " IN (";
+
+    StringBuilder suffix = new StringBuilder(") UNION ALL SELECT ").append(columns)
+        .append("H.").append(EXPAND_ROOT_ALIAS).append(", H.").append(EXPAND_LEVEL_ALIAS).append(" + 1 FROM ")
+        .append(table).append(" X JOIN H ON X.").append(node.relatedProperty).append(" = H.")
+        .append(node.parentProperty).append(" WHERE H.").append(EXPAND_LEVEL_ALIAS).append(" < ?) SELECT ")
+        .append(cteColumns).append("H.").append(EXPAND_ROOT_ALIAS).append(", H.").append(EXPAND_LEVEL_ALIAS)
+        .append(" FROM H ORDER BY H.").append(EXPAND_LEVEL_ALIAS);
+    for (org.apache.olingo.commons.api.edm.EdmKeyPropertyRef keyRef : targetType.getKeyPropertyRefs()) {
+      suffix.append(", H.").append(keyRef.getName());
+    }
+    node.suffixParams.add(node.levels);
+    node.sqlSuffix = suffix.toString();
+  }
+
+  /**
+   * Load the expanded navigation properties of a batch of entities: one IN query per
+   * navigation property and level (split into chunks of EXPAND_BATCH_SIZE keys),
+   * with the results grouped by parent and attached as inline navigation links.
+   */
+  private void expandEntities(Connection conn, List<Entity> parents, List<ExpandNode> nodes,
+      QueryArguments arguments) throws SQLException {
+    if (parents.isEmpty()) {
+      return;
+    }
+    for (ExpandNode node : nodes) {
+      // Keys are compared by their text so INTEGER and BIGINT columns still match
+      java.util.Map<String, Object> keys = new java.util.LinkedHashMap<>();
+      for (Entity parent : parents) {
+        Property value = parent.getProperty(node.parentProperty);
+        if (value != null && value.getValue() != null) {
+          keys.putIfAbsent(value.getValue().toString(), value.getValue());
+        }
+      }
+
+      java.util.Map<String, List<Entity>> related = new java.util.HashMap<>();
+      java.util.Map<Entity, Integer> levels = new java.util.IdentityHashMap<>();
+      java.util.Map<Entity, Object> roots = new java.util.IdentityHashMap<>();
+      List<Entity> relatedEntities = new ArrayList<>();
+      List<Object> keyValues = new ArrayList<>(keys.values());
+      for (int from = 0; from < keyValues.size(); from += EXPAND_BATCH_SIZE) {
+        List<Object> chunk = keyValues.subList(from, Math.min(from + EXPAND_BATCH_SIZE, keyValues.size()));
+        StringBuilder sql = new StringBuilder(node.sqlPrefix);
+        for (int i = 0; i < chunk.size(); i++) {
+          sql.append(i > 0 ? ", ?" : "?");
+        }
+        sql.append(node.sqlSuffix);
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+          int index = 1;
+          for (ParameterBinder param : node.prefixParams) {
+            setParameterSafely(stmt, index++, param.bind(arguments));
+          }
+          for (Object key : chunk) {
+            setParameterSafely(stmt, index++, key);
+          }
+          for (ParameterBinder param : node.suffixParams) {
+            setParameterSafely(stmt, index++, param.bind(arguments));
+          }
+          try (ResultSet rs = stmt.executeQuery()) {
+            int rootColumn = node.rowMapper.getColumnCount() + 1;
+            while (rs.next()) {
+              Entity entity = node.rowMapper.map(rs);
+              String relatedKey = entity.getProperty(node.relatedProperty).getValue().toString();
+              if (node.levels != null) {
+                // Recursive rows are grouped by root and level as well
+                int level = rs.getInt(rootColumn + 1);
+                relatedKey = rs.getObject(rootColumn) + "/" + level + "/" + relatedKey;
+                levels.put(entity, level);
+                roots.put(entity, rs.getObject(rootColumn));
               }
+              related.computeIfAbsent(relatedKey, k -> new ArrayList<>()).add(entity);
+              relatedEntities.add(entity);
             }
           }
+        }
+      }
+      expandEntities(conn, relatedEntities, node.children, arguments);
 
-          try {
-            List<org.apache.olingo.commons.api.edm.EdmKeyPropertyRef> keyRefs = edmEntityType.getKeyPropertyRefs();
-            if (!keyRefs.isEmpty()) {
-              String keyName = keyRefs.getFirst().getName();
-              Object keyValue = rs.getObject(keyName);
-              currentEntity.setId(java.net.URI.create(entitySetName + "(" + keyValue + ")"));
-            } else {
-              logger.warn("No key property found for entity set {}", entitySetName);
-            }
-          } catch (SQLException e) {
-            logger.warn("Could not set entity ID: {}", e.getMessage());
+      for (Entity parent : parents) {
+        Property value = parent.getProperty(node.parentProperty);
+        String parentKey = value == null || value.getValue() == null ? null : value.getValue().toString();
+        if (node.levels != null && parentKey != null) {
+          parentKey = parentKey + "/1/" + parentKey;
+        }
+        addInlineLink(parent, node, parentKey == null ? List.of() : related.getOrDefault(parentKey, List.of()));
+      }
+      if (node.levels != null) {
+        // Link each level to the next, leaving the last level's navigation property unexpanded
+        int maxLevel = (Integer) node.levels.bind(arguments);
+        for (Entity entity : relatedEntities) {
+          int level = levels.get(entity);
+          if (level < maxLevel) {
+            Property value = entity.getProperty(node.parentProperty);
+            List<Entity> matches = value == null || value.getValue() == null ? List.of()
+                : related.getOrDefault(roots.get(entity) + "/" + (level + 1) + "/" + value.getValue(), List.of());
+            addInlineLink(entity, node, matches);
           }
+        }
+      }
+    }
+  }
+
+  private void addInlineLink(Entity parent, ExpandNode node, List<Entity> matches) {
+    Link link = new Link();
+    link.setTitle(node.navigationName);
+    if (node.collection) {
+      EntityCollection inline = new EntityCollection();
+      inline.getEntities().addAll(matches);
+      link.setInlineEntitySet(inline);
+    } else {
+      link.setInlineEntity(matches.isEmpty() ? null : matches.getFirst());
+    }
+    parent.getNavigationLinks().add(link);
+  }
+
+  /**
+   * Structural properties to read for $select: the selected properties plus the key
+   * properties needed to build entity ids, or every property when $select is absent
+   * or contains '*'.
+   */
+  private List<org.apache.olingo.commons.api.edm.EdmProperty> getSelectedProperties(
+      EdmEntityType edmEntityType, SelectOption selectOption) {
+    java.util.Set<String> selectedNames = getSelectedNames(selectOption);
+    List<org.apache.olingo.commons.api.edm.EdmProperty> properties = new ArrayList<>();
+    for (String propertyName : edmEntityType.getPropertyNames()) {
+      org.apache.olingo.commons.api.edm.EdmProperty edmProperty = edmEntityType.getStructuralProperty(propertyName);
+      if (edmProperty != null
+          && (selectedNames == null || selectedNames.contains(propertyName)
+              || isKeyProperty(edmEntityType, propertyName))) {
+        properties.add(edmProperty);
+      }
+    }
+    return properties;
+  }
+
+  /**
+   * Property names $select lists, or null when it selects all properties.
+   */
+  private java.util.Set<String> getSelectedNames(SelectOption selectOption) {
+    if (selectOption == null) {
+      return null;
+    }
+    java.util.Set<String> selectedNames = new java.util.HashSet<>();
+    for (SelectItem item : selectOption.getSelectItems()) {
+      if (item.isStar() || item.getResourcePath() == null) {
+        return null;
+      }
+      UriResource segment = item.getResourcePath().getUriResourceParts().getFirst();
+      if (segment instanceof UriResourceProperty) {
+        selectedNames.add(((UriResourceProperty) segment).getProperty().getName());
+      }
+    }
+    return selectedNames;
+  }
+
+  /**
+   * Append the WHERE clause shared by the row query and the COUNT(*) query: the key
+   * predicates of a single-entity read, the navigation path and the $filter
+   * expression. Navigation properties the filter walks through are joined via
+   * {@code joins}.
+   *
+   * @return true when a WHERE clause was written
+   */
+  private boolean appendWhereClause(
+      StringBuilder sql,
+      List<ParameterBinder> params,
+      EdmEntitySet edmEntitySet,
+      List<UriParameter> keyParams,
+      UriInfo uriInfo,
+      String mainTableAlias,
+      QueryArguments arguments,
+      QueryJoins joins,
+      SqlDialect dialect)
+      throws ODataApplicationException {
+    EdmEntityType edmEntityType = edmEntitySet.getEntityType();
+    boolean hasWhere = false;
+    if (keyParams != null) {
+      for (int i = 0; i < keyParams.size(); i++) {
+        int index = i;
+        sql.append(hasWhere ? " AND " : " WHERE ");
+        sql.append(mainTableAlias).append(".").append(keyParams.get(i).getName()).append(" = ?");
+        params.add(args -> convertKeyPredicate(args.getKeyPredicates().get(index), edmEntityType));
+        hasWhere = true;
+      }
+    }
+
+    List<UriResource> path = QueryArguments.navigationPath(uriInfo.getUriResourceParts());
+    if (path.size() > 1) {
+      sql.append(hasWhere ? " AND " : " WHERE ");
+      appendNavigationPredicate(sql, params, path, path.size() - 1, mainTableAlias);
+      hasWhere = true;
+    }
+
+    if (uriInfo.getFilterOption() != null && uriInfo.getFilterOption().getExpression() != null) {
+      // $filter literals come first in the arguments
+      String filterSql = translateExpression(uriInfo.getFilterOption().getExpression(),
+          new ODataSqlExpressionVisitor(mainTableAlias, edmEntitySet, joins, params, arguments, 0));
+      sql.append(hasWhere ? " AND " : " WHERE ").append(filterSql);
+      hasWhere = true;
+    }
+
+    if (uriInfo.getSearchOption() != null && uriInfo.getSearchOption().getSearchExpression() != null) {
+      List<String> columns = new ArrayList<>();
+      for (String column : getSearchColumns(edmEntitySet)) {
+        columns.add(mainTableAlias + "." + column);
+      }
+      sql.append(hasWhere ? " AND " : " WHERE ").append(dialect.searchPredicate(columns,
+          uriInfo.getSearchOption().getSearchExpression(), textSearchConfig, params, arguments.getSearchOffset()));
+      hasWhere = true;
+    }
+    return hasWhere;
+  }
+
+  /**
+   * Columns $search matches for an entity set: those listed in
+   * {@code odata.search.columns.<EntitySet>}, otherwise every string property.
+   */
+  private List<String> getSearchColumns(EdmEntitySet edmEntitySet) throws ODataApplicationException {
+    EdmEntityType edmEntityType = edmEntitySet.getEntityType();
+    String configured = environment.getProperty("odata.search.columns." + edmEntitySet.getName());
+    List<String> columns = new ArrayList<>();
+    if (configured != null && !configured.isBlank()) {
+      for (String name : configured.split(",")) {
+        if (!(edmEntityType.getProperty(name.trim()) instanceof org.apache.olingo.commons.api.edm.EdmProperty)) {
+          throw new ODataApplicationException("Unknown search column " + name.trim() + " for "
+              + edmEntitySet.getName(), HttpStatusCode.INTERNAL_SERVER_ERROR.getStatusCode(), Locale.ENGLISH);
+        }
+        columns.add(name.trim());
+      }
+      return columns;
+    }
+    for (String name : edmEntityType.getPropertyNames()) {
+      if (edmEntityType.getStructuralProperty(name).getType().getFullQualifiedName()
+          .equals(org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind.String.getFullQualifiedName())) {
+        columns.add(name);
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * The entity set addressed by a resource path: the entity set of its first segment
+   * followed through each navigation segment.
+   */
+  private EdmEntitySet resolveEntitySet(List<UriResource> resourceParts) throws ODataApplicationException {
+    List<UriResource> path = QueryArguments.navigationPath(resourceParts);
+    if (path.isEmpty() || !(path.getFirst() instanceof UriResourceEntitySet)) {
+      throw new ODataApplicationException("Unsupported resource path",
+          HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+    }
+    EdmEntitySet edmEntitySet = ((UriResourceEntitySet) path.getFirst()).getEntitySet();
+    for (int i = 1; i < path.size(); i++) {
+      edmEntitySet = resolveNavigation(
+          edmEntitySet, ((UriResourceNavigation) path.get(i)).getProperty()).targetEntitySet;
+    }
+    return edmEntitySet;
+  }
+
+  /**
+   * Restrict the rows of the entity set addressed by a navigation path to those
+   * related to the segment before it: an IN subselect over that segment's table with
+   * its key predicates, nested once per earlier navigation segment, so the whole
+   * path is read in one statement.
+   *
+   * @param segment index in {@code path} of the navigation segment {@code alias} reads
+   */
+  private void appendNavigationPredicate(
+      StringBuilder sql, List<ParameterBinder> params, List<UriResource> path, int segment, String alias)
+      throws ODataApplicationException {
+    EdmEntitySet sourceEntitySet = resolveEntitySet(path.subList(0, segment));
+    EdmEntityType sourceType = sourceEntitySet.getEntityType();
+    NavigationResolver.Join join = resolveNavigation(sourceEntitySet, ((UriResourceNavigation) path.get(segment)).getProperty());
+    String sourceAlias = "P" + segment;
+    sql.append(alias).append(".").append(join.relatedColumn)
+        .append(" IN (SELECT ").append(sourceAlias).append(".").append(join.parentColumn)
+        .append(" FROM ").append(getTableNameFromEntitySetName(sourceEntitySet.getName()))
+        .append(" ").append(sourceAlias);
+
+    int sourceSegment = segment - 1;
+    List<UriParameter> keyParams = QueryArguments.keyPredicatesOf(path.get(sourceSegment));
+    boolean hasWhere = false;
+    for (int i = 0; i < keyParams.size(); i++) {
+      int index = i;
+      sql.append(hasWhere ? " AND " : " WHERE ")
+          .append(sourceAlias).append(".").append(keyParams.get(i).getName()).append(" = ?");
+      params.add(args -> convertKeyPredicate(args.getPathKeyPredicates(sourceSegment).get(index), sourceType));
+      hasWhere = true;
+    }
+    if (sourceSegment > 0) {
+      sql.append(hasWhere ? " AND " : " WHERE ");
+      appendNavigationPredicate(sql, params, path, sourceSegment, sourceAlias);
+    }
+    sql.append(")");
+  }
+
+  private NavigationResolver.Join resolveNavigation(
+      EdmEntitySet sourceEntitySet, org.apache.olingo.commons.api.edm.EdmNavigationProperty navProp)
+      throws ODataApplicationException {
+    DefaultEdmProvider.ForeignKeyInfo fk = navProp.isCollection()
+        ? edmProvider.getReferencingForeignKey(sourceEntitySet.getName(), navProp.getName())
+        : edmProvider.getForeignKey(sourceEntitySet.getName(), navProp.getName());
+    EdmBindingTarget target = sourceEntitySet.getRelatedBindingTarget(navProp.getName());
+    if (fk == null || !(target instanceof EdmEntitySet)) {
+      throw new ODataApplicationException("Unsupported navigation property " + navProp.getName(),
+          HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+    }
+    return new NavigationResolver.Join((EdmEntitySet) target, getTableNameFromEntitySetName(target.getName()),
+        navProp.isCollection() ? fk.pkColumnName : fk.fkColumnName,
+        navProp.isCollection() ? fk.fkColumnName : fk.pkColumnName);
+  }
+
+  /**
+   * Translate an expression tree to SQL, binding its literals through the visitor's
+   * parameter list.
+   */
+  private String translateExpression(Expression expression, ODataSqlExpressionVisitor visitor)
+      throws ODataApplicationException {
+    try {
+      return expression.accept(visitor);
+    } catch (ExpressionVisitException e) {
+      throw new ODataApplicationException("Invalid expression: " + e.getMessage(),
+          HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH, e);
+    }
+  }
+
+  /**
+   * Count the entities matching the request's $filter without reading any row data.
+   * The entity set's count strategy decides how: exact runs COUNT(*); on PostgreSQL,
+   * estimate reads pg_class.reltuples for an unfiltered set and the planner's row
+   * estimate otherwise, and auto estimates first and only counts exactly below
+   * odata.count.estimate.threshold rows. Counts are cached for odata.count.cache.ttl
+   * milliseconds, keyed by the WHERE clause and its bound values.
+   */
+  private CountCache.Count countEntities(
+      Connection conn, EdmEntitySet edmEntitySet, UriInfo uriInfo, QueryArguments arguments)
+      throws SQLException, ODataApplicationException {
+    String mainTableAlias = "T";
+    QueryJoins joins = new QueryJoins();
+    StringBuilder where = new StringBuilder();
+    List<ParameterBinder> params = new ArrayList<>();
+    SqlDialect dialect = getDialect(conn);
+    appendWhereClause(where, params, edmEntitySet, null, uriInfo, mainTableAlias, arguments, joins, dialect);
+    String tableName = getTableNameFromEntitySetName(edmEntitySet.getName());
+    String from = " FROM " + tableName + " " + mainTableAlias + joins.getJoinClause() + where;
+    List<Object> values = new ArrayList<>(params.size());
+    for (ParameterBinder param : params) {
+      values.add(param.bind(arguments));
+    }
+
+    CountCache cache = countCache();
+    String cacheKey = edmEntitySet.getName() + from + values;
+    CountCache.Count count = cache != null ? cache.get(cacheKey) : null;
+    if (count != null) {
+      return count;
+    }
+    String strategy = environment.getProperty("odata.count.strategy." + edmEntitySet.getName(), countStrategy);
+    if (!"exact".equalsIgnoreCase(strategy) && dialect == SqlDialect.POSTGRESQL) {
+      long estimate = where.isEmpty()
+          ? estimateTableRows(conn, tableName) : estimateQueryRows(conn, "SELECT 1" + from, values);
+      if (estimate >= 0 && ("estimate".equalsIgnoreCase(strategy) || estimate >= countEstimateThreshold)) {
+        count = new CountCache.Count(estimate, true);
+      }
+    }
+    if (count == null) {
+      String sql = "SELECT COUNT(*)" + from;
+      logger.debug("countEntities SQL: {}", sql);
+      try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        for (int i = 0; i < values.size(); i++) {
+          setParameterSafely(stmt, i + 1, values.get(i));
+        }
+        try (ResultSet rs = stmt.executeQuery()) {
+          rs.next();
+          count = new CountCache.Count(rs.getLong(1), false);
+        }
+      }
+    }
+    if (cache != null) {
+      cache.put(cacheKey, count);
+    }
+    return count;
+  }
+
+  /**
+   * Row count PostgreSQL keeps for a table from its last VACUUM or ANALYZE, or -1 when
+   * the table has never been analyzed.
+   */
+  private long estimateTableRows(Connection conn, String tableName) throws SQLException {
+    try (PreparedStatement stmt =
+        conn.prepareStatement("SELECT reltuples::bigint FROM pg_class WHERE oid = to_regclass(?)")) {
+      stmt.setString(1, tableName);
+      try (ResultSet rs = stmt.executeQuery()) {
+        return rs.next() ? rs.getLong(1) : -1;
+      }
+    }
+  }
+
+  /**
+   * Rows the PostgreSQL planner expects a query to return, read from its EXPLAIN plan.
+   */
+  private long estimateQueryRows(Connection conn, String sql, List<Object> values) throws SQLException {
+    try (PreparedStatement stmt = conn.prepareStatement("EXPLAIN (FORMAT JSON) " + sql)) {
+      for (int i = 0; i < values.size(); i++) {
+        setParameterSafely(stmt, i + 1, values.get(i));
+      }
+      try (ResultSet rs = stmt.executeQuery()) {
+        if (!rs.next()) {
+          return -1;
+        }
+        return (long) new org.json.JSONArray(rs.getString(1)).getJSONObject(0).getJSONObject("Plan")
+            .getDouble("Plan Rows");
+      }
+    }
+  }
+
+  /**
+   * The count as the serializers take it, marking the response when it is an estimate.
+   */
+  private int applyCount(ODataResponse response, CountCache.Count count) {
+    if (count.approximate && response != null) {
+      response.setHeader(COUNT_APPROXIMATE_HEADER, "true");
+    }
+    return (int) Math.min(count.value, Integer.MAX_VALUE);
+  }
+
+  private CountCache countCache() {
+    if (countCacheTtlMillis <= 0) {
+      return null;
+    }
+    CountCache cache = countCache;
+    if (cache == null) {
+      synchronized (this) {
+        cache = countCache;
+        if (cache == null) {
+          cache = new CountCache(COUNT_CACHE_SIZE, countCacheTtlMillis);
+          countCache = cache;
+        }
+      }
+    }
+    return cache;
+  }
+
+  @Override
+  public void countEntityCollection(ODataRequest request, ODataResponse response, UriInfo uriInfo)
+      throws ODataApplicationException, ODataLibraryException {
+    EdmEntitySet edmEntitySet = resolveEntitySet(uriInfo.getUriResourceParts());
+
+    int count;
+    try (Connection conn = dataSource.getConnection()) {
+      QueryArguments arguments = QueryArguments.collect(edmEntitySet, null, uriInfo, null);
+      count = applyCount(response, countEntities(conn, edmEntitySet, uriInfo, arguments));
+    } catch (SQLException e) {
+      logger.error("countEntityCollection: SQLException: {}", e.getMessage(), e);
+      throw new ODataApplicationException("Database error: " + e.getMessage(),
+          HttpStatusCode.INTERNAL_SERVER_ERROR.getStatusCode(), Locale.ENGLISH, e);
+    }
+
+    response.setContent(odata.createFixedFormatSerializer().count(count));
+    response.setStatusCode(HttpStatusCode.OK.getStatusCode());
+    response.setHeader(HttpHeader.CONTENT_TYPE, ContentType.TEXT_PLAIN.toContentTypeString());
+  }
+
+  /**
+   * Answer a $apply request with a single aggregate query. Each transformation wraps
+   * the previous one as a subquery, so filtering, grouping, aggregation and
+   * top/bottom selection run in the database and only the result rows are read.
+   * Aggregated rows have no entity type to serialize with, so they are written as
+   * JSON directly.
+   */
+  private void readAggregatedCollection(ODataRequest request, ODataResponse response, UriInfo uriInfo,
+      EdmEntitySet edmEntitySet, ContentType responseFormat) throws ODataApplicationException {
+    if (!responseFormat.isCompatible(ContentType.JSON)) {
+      throw new ODataApplicationException("$apply results are only available as JSON",
+          HttpStatusCode.NOT_ACCEPTABLE.getStatusCode(), Locale.ENGLISH);
+    }
+    if (uriInfo.getSearchOption() != null || (uriInfo.getCountOption() != null && uriInfo.getCountOption().getValue())) {
+      throw new ODataApplicationException("$search and $count are not supported together with $apply",
+          HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+    }
+    Integer pageSize = resolvePageSize(request, response);
+    java.net.URI nextLink = null;
+    org.json.JSONArray rows = new org.json.JSONArray();
+    List<String> columns;
+    try (Connection conn = dataSource.getConnection()) {
+      QueryArguments arguments = QueryArguments.collect(edmEntitySet, null, uriInfo, pageSize);
+      ApplyStage stage = buildApplyQuery(conn, edmEntitySet, uriInfo, arguments);
+      columns = stage.columns;
+      logger.debug("readAggregatedCollection SQL: {}", stage.sql);
+      try (PreparedStatement stmt = conn.prepareStatement(stage.sql)) {
+        for (int i = 0; i < stage.params.size(); i++) {
+          setParameterSafely(stmt, i + 1, stage.params.get(i).bind(arguments));
+        }
+        try (ResultSet rs = stmt.executeQuery()) {
+          while (rs.next()) {
+            if (pageSize != null && rows.length() == pageSize) {
+              // Another row remains, so the page ends here
+              nextLink = buildSkipNextLink(request, uriInfo, pageSize);
+              break;
+            }
+            JSONObject row = new JSONObject();
+            for (int i = 0; i < columns.size(); i++) {
+              putAggregatedValue(row, columns.get(i), rs.getObject(i + 1));
+            }
+            rows.put(row);
+          }
+        }
+      }
+    } catch (SQLException e) {
+      logger.error("readAggregatedCollection: SQLException: {}", e.getMessage(), e);
+      throw new ODataApplicationException("Database error: " + e.getMessage(),
+          HttpStatusCode.INTERNAL_SERVER_ERROR.getStatusCode(), Locale.ENGLISH, e);
+    }
+
+    JSONObject body = new JSONObject();
+    body.put("@odata.context", request.getRawBaseUri() + "/$metadata#" + edmEntitySet.getName()
+        + "(" + String.join(",", columns) + ")");
+    body.put("value", rows);
+    if (nextLink != null) {
+      body.put("@odata.nextLink", nextLink.toString());
+    }
+    response.setContent(new java.io.ByteArrayInputStream(body.toString().getBytes(StandardCharsets.UTF_8)));
+    response.setStatusCode(HttpStatusCode.OK.getStatusCode());
+    response.setHeader(HttpHeader.CONTENT_TYPE, ContentType.JSON.toContentTypeString());
+  }
+
+  /**
+   * Write a result column; a column grouped by a navigation path such as
+   * Category/NAME becomes a nested object.
+   */
+  private void putAggregatedValue(JSONObject row, String column, Object value) {
+    String[] path = column.split("/");
+    JSONObject target = row;
+    for (int i = 0; i < path.length - 1; i++) {
+      JSONObject nested = target.optJSONObject(path[i]);
+      if (nested == null) {
+        nested = new JSONObject();
+        target.put(path[i], nested);
+      }
+      target = nested;
+    }
+    target.put(path[path.length - 1], value == null ? JSONObject.NULL
+        : value instanceof Number || value instanceof Boolean ? value : value.toString());
+  }
+
+  /**
+   * A step of a $apply pipeline: its SELECT, the binders of its parameters, the
+   * OData names of its columns in select-list order and the SQL names of the columns
+   * that identify its rows.
+   */
+  private static class ApplyStage {
+    String sql;
+    final List<ParameterBinder> params = new ArrayList<>();
+    final List<String> columns = new ArrayList<>();
+    final List<String> keyColumns = new ArrayList<>();
+  }
+
+  /**
+   * Translate $apply, followed by the request's own $filter, $orderby, $top and $skip,
+   * which apply to the aggregated rows. Transformations before the first grouping read
+   * the entity table itself, so their navigation paths can be joined.
+   */
+  private ApplyStage buildApplyQuery(
+      Connection conn, EdmEntitySet edmEntitySet, UriInfo uriInfo, QueryArguments arguments)
+      throws SQLException, ODataApplicationException {
+    QueryJoins joins = new QueryJoins();
+    StringBuilder baseWhere = new StringBuilder();
+    List<ParameterBinder> baseParams = new ArrayList<>();
+    // null while the pipeline still reads the entity table
+    ApplyStage stage = null;
+    int depth = 0;
+    for (ApplyItem item : uriInfo.getApplyOption().getApplyItems()) {
+      String alias = stage == null ? "T" : "A" + depth++;
+      switch (item.getKind()) {
+        case IDENTITY:
+          break;
+        case FILTER: {
+          Expression expression = ((Filter) item).getFilterOption().getExpression();
+          List<ParameterBinder> params = stage == null ? baseParams : new ArrayList<>();
+          String condition = translateExpression(expression, new ODataSqlExpressionVisitor(alias,
+              stage == null ? edmEntitySet : null, stage == null ? joins : null, params, arguments,
+              arguments.getApplyOffset(expression)));
+          if (stage == null) {
+            baseWhere.append(baseWhere.isEmpty() ? " WHERE " : " AND ").append(condition);
+          } else {
+            ApplyStage next = new ApplyStage();
+            next.sql = "SELECT * FROM (" + stage.sql + ") " + alias + " WHERE " + condition;
+            next.params.addAll(stage.params);
+            next.params.addAll(params);
+            next.columns.addAll(stage.columns);
+            next.keyColumns.addAll(stage.keyColumns);
+            stage = next;
+          }
+          break;
+        }
+        case AGGREGATE:
+        case GROUP_BY:
+          stage = aggregateStage(item, stage, alias, edmEntitySet, joins, baseWhere, baseParams, arguments);
+          break;
+        case BOTTOM_TOP: {
+          BottomTop bottomTop = (BottomTop) item;
+          boolean top = bottomTop.getMethod() == BottomTop.Method.TOP_COUNT;
+          if (!top && bottomTop.getMethod() != BottomTop.Method.BOTTOM_COUNT) {
+            throw new ODataApplicationException("Unsupported $apply transformation: " + bottomTop.getMethod(),
+                HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+          }
+          if (stage == null) {
+            stage = entityStage(edmEntitySet, joins, baseWhere, baseParams);
+            alias = "A" + depth++;
+          }
+          List<ParameterBinder> countParams = new ArrayList<>();
+          String count = translateExpression(bottomTop.getNumber(), new ODataSqlExpressionVisitor(
+              alias, null, null, countParams, arguments, arguments.getApplyOffset(bottomTop.getNumber())));
+          if (countParams.size() != 1 || !"?".equals(count)) {
+            throw new ODataApplicationException("The count of " + bottomTop.getMethod() + " must be a number",
+                HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+          }
+          ApplyStage next = new ApplyStage();
+          next.params.addAll(stage.params);
+          String value = translateExpression(bottomTop.getValue(), new ODataSqlExpressionVisitor(
+              alias, null, null, next.params, arguments, arguments.getApplyOffset(bottomTop.getValue())));
+          StringBuilder sql = new StringBuilder("SELECT * FROM (").append(stage.sql).append(") ").append(alias)
+              .append(" ORDER BY ").append(value).append(top ? " DESC NULLS LAST" : " ASC NULLS LAST");
+          getDialect(conn).appendLimitOffset(sql, next.params, countParams.getFirst(), null);
+          next.sql = sql.toString();
+          next.columns.addAll(stage.columns);
+          next.keyColumns.addAll(stage.keyColumns);
+          stage = next;
+          break;
+        }
+        default:
+          throw new ODataApplicationException("Unsupported $apply transformation: " + item.getKind(),
+              HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+      }
+    }
+    if (stage == null) {
+      stage = entityStage(edmEntitySet, joins, baseWhere, baseParams);
+    }
+
+    // $filter, $orderby, $top and $skip address the result of $apply
+    ApplyStage result = new ApplyStage();
+    result.columns.addAll(stage.columns);
+    result.params.addAll(stage.params);
+    StringBuilder sql = new StringBuilder("SELECT * FROM (").append(stage.sql).append(") R");
+    if (uriInfo.getFilterOption() != null && uriInfo.getFilterOption().getExpression() != null) {
+      sql.append(" WHERE ").append(translateExpression(uriInfo.getFilterOption().getExpression(),
+          new ODataSqlExpressionVisitor("R", null, null, result.params, arguments, 0)));
+    }
+    if (uriInfo.getOrderByOption() != null) {
+      List<OrderByItem> items = uriInfo.getOrderByOption().getOrders();
+      for (int i = 0; i < items.size(); i++) {
+        sql.append(i == 0 ? " ORDER BY " : ", ").append(translateExpression(items.get(i).getExpression(),
+            new ODataSqlExpressionVisitor("R", null, null, result.params, arguments, arguments.getOrderByOffset(i))));
+        sql.append(items.get(i).isDescending() ? " DESC NULLS FIRST" : " ASC NULLS LAST");
+      }
+    } else if (arguments.isServerPaged()) {
+      // The $skip of the next link needs the same row order on every page
+      for (int i = 0; i < stage.keyColumns.size(); i++) {
+        sql.append(i == 0 ? " ORDER BY " : ", ").append("R.").append(stage.keyColumns.get(i)).append(" ASC NULLS LAST");
+      }
+    }
+    getDialect(conn).appendLimitOffset(sql, result.params,
+        arguments.getLimit() != null ? QueryArguments::getLimit : null,
+        arguments.getOffset() != null ? QueryArguments::getOffset : null);
+    result.sql = sql.toString();
+    return result;
+  }
+
+  /**
+   * The entity table's properties after the filters that preceded any grouping.
+   */
+  private ApplyStage entityStage(
+      EdmEntitySet edmEntitySet, QueryJoins joins, StringBuilder baseWhere, List<ParameterBinder> baseParams) {
+    ApplyStage stage = new ApplyStage();
+    StringBuilder sql = new StringBuilder("SELECT ");
+    for (org.apache.olingo.commons.api.edm.EdmProperty edmProperty
+        : getSelectedProperties(edmEntitySet.getEntityType(), null)) {
+      sql.append(stage.columns.isEmpty() ? "" : ", ").append("T.").append(edmProperty.getName());
+      stage.columns.add(edmProperty.getName());
+    }
+    for (org.apache.olingo.commons.api.edm.EdmKeyPropertyRef keyRef : edmEntitySet.getEntityType().getKeyPropertyRefs()) {
+      stage.keyColumns.add(keyRef.getName());
+    }
+    sql.append(" FROM ").append(getTableNameFromEntitySetName(edmEntitySet.getName())).append(" T")
+        .append(joins.getJoinClause()).append(baseWhere);
+    stage.sql = sql.toString();
+    stage.params.addAll(baseParams);
+    return stage;
+  }
+
+  /**
+   * groupby((paths), aggregate(...)) as GROUP BY, or aggregate(...) over all rows.
+   */
+  private ApplyStage aggregateStage(ApplyItem item, ApplyStage stage, String alias, EdmEntitySet edmEntitySet,
+      QueryJoins joins, StringBuilder baseWhere, List<ParameterBinder> baseParams, QueryArguments arguments)
+      throws ODataApplicationException {
+    EdmEntitySet source = stage == null ? edmEntitySet : null;
+    ApplyStage next = new ApplyStage();
+    List<String> selectList = new ArrayList<>();
+    List<String> groupColumns = new ArrayList<>();
+    List<AggregateExpression> aggregates = new ArrayList<>();
+
+    if (item instanceof GroupBy) {
+      GroupBy groupBy = (GroupBy) item;
+      for (GroupByItem groupByItem : groupBy.getGroupByItems()) {
+        if (groupByItem.isRollupAll() || !groupByItem.getRollup().isEmpty()) {
+          throw new ODataApplicationException("rollup is not supported in $apply",
+              HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+        }
+        String column = applyPathColumn(groupByItem.getPath(), alias, source, joins);
+        StringBuilder name = new StringBuilder();
+        for (UriResource segment : groupByItem.getPath()) {
+          name.append(name.isEmpty() ? "" : "/").append(segment.getSegmentValue());
+        }
+        groupColumns.add(column);
+        selectList.add(column + " AS " + name.toString().replace('/', '_'));
+        next.columns.add(name.toString());
+        next.keyColumns.add(name.toString().replace('/', '_'));
+      }
+      if (groupBy.getApplyOption() != null) {
+        for (ApplyItem nested : groupBy.getApplyOption().getApplyItems()) {
+          if (!(nested instanceof Aggregate)) {
+            throw new ODataApplicationException("Unsupported transformation in groupby: " + nested.getKind(),
+                HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+          }
+          aggregates.addAll(((Aggregate) nested).getExpressions());
+        }
+      }
+    } else {
+      aggregates.addAll(((Aggregate) item).getExpressions());
+    }
+    for (AggregateExpression aggregate : aggregates) {
+      selectList.add(aggregateSql(aggregate, alias, source, joins, next.params, arguments)
+          + " AS " + aggregate.getAlias());
+      next.columns.add(aggregate.getAlias());
+    }
+
+    StringBuilder sql = new StringBuilder("SELECT ").append(String.join(", ", selectList));
+    if (stage == null) {
+      sql.append(" FROM ").append(getTableNameFromEntitySetName(edmEntitySet.getName())).append(" T")
+          .append(joins.getJoinClause()).append(baseWhere);
+      next.params.addAll(baseParams);
+    } else {
+      sql.append(" FROM (").append(stage.sql).append(") ").append(alias);
+      next.params.addAll(stage.params);
+    }
+    if (!groupColumns.isEmpty()) {
+      sql.append(" GROUP BY ").append(String.join(", ", groupColumns));
+    }
+    next.sql = sql.toString();
+    return next;
+  }
+
+  private String aggregateSql(AggregateExpression aggregate, String alias, EdmEntitySet source, QueryJoins joins,
+      List<ParameterBinder> params, QueryArguments arguments) throws ODataApplicationException {
+    List<UriResource> path = aggregate.getPath() != null ? aggregate.getPath() : List.of();
+    if (!path.isEmpty() && path.getLast() instanceof org.apache.olingo.server.api.uri.UriResourceCount) {
+      return "COUNT(*)";
+    }
+    if (aggregate.getStandardMethod() == null || aggregate.getInlineAggregateExpression() != null
+        || (aggregate.getFrom() != null && !aggregate.getFrom().isEmpty())) {
+      throw new ODataApplicationException("Unsupported aggregate expression " + aggregate.getAlias(),
+          HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+    }
+    String operand;
+    if (aggregate.getExpression() != null) {
+      operand = translateExpression(aggregate.getExpression(), new ODataSqlExpressionVisitor(alias, source,
+          source != null ? joins : null, params, arguments, arguments.getApplyOffset(aggregate.getExpression())));
+    } else {
+      operand = applyPathColumn(path, alias, source, joins);
+    }
+    switch (aggregate.getStandardMethod()) {
+      case SUM:
+        return "SUM(" + operand + ")";
+      case MIN:
+        return "MIN(" + operand + ")";
+      case MAX:
+        return "MAX(" + operand + ")";
+      case AVERAGE:
+        return "AVG(" + operand + ")";
+      case COUNT_DISTINCT:
+        return "COUNT(DISTINCT " + operand + ")";
+      default:
+        throw new ODataApplicationException("Unsupported aggregate method " + aggregate.getStandardMethod(),
+            HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+    }
+  }
+
+  /**
+   * Column of a property path in $apply. Navigation properties can only be joined while
+   * the pipeline reads the entity table ({@code source} is not null).
+   */
+  private String applyPathColumn(List<UriResource> path, String alias, EdmEntitySet source, QueryJoins joins)
+      throws ODataApplicationException {
+    if (path.isEmpty() || !isPropertyPath(path) || (source == null && path.size() > 1)) {
+      throw new ODataApplicationException("Unsupported property path in $apply",
+          HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+    }
+    StringBuilder navigationPath = new StringBuilder();
+    EdmEntitySet current = source;
+    for (int i = 0; i < path.size() - 1; i++) {
+      org.apache.olingo.commons.api.edm.EdmNavigationProperty navProp =
+          ((UriResourceNavigation) path.get(i)).getProperty();
+      navigationPath.append(navigationPath.isEmpty() ? "" : "/").append(navProp.getName());
+      alias = joins.join(navigationPath.toString(), alias, current, navProp);
+      current = resolveNavigation(current, navProp).targetEntitySet;
+    }
+    return alias + "." + ((UriResourceProperty) path.getLast()).getProperty().getName();
+  }
+
+  /**
+   * A column of the ORDER BY clause. NULLs sort as the greatest value in both
+   * directions (ASC NULLS LAST / DESC NULLS FIRST), which is what a plain B-tree
+   * index returns when scanned forwards or backwards.
+   */
+  private static class OrderColumn {
+    final String expression;
+    final List<ParameterBinder> params;
+    final boolean descending;
+    final org.apache.olingo.commons.api.edm.EdmType type;
+    final boolean nullable;
+
+    OrderColumn(String expression, List<ParameterBinder> params, boolean descending,
+        org.apache.olingo.commons.api.edm.EdmType type, boolean nullable) {
+      this.expression = expression;
+      this.params = params;
+      this.descending = descending;
+      this.type = type;
+      this.nullable = nullable;
+    }
+  }
+
+  /**
+   * Resolve one $orderby item. Property paths through single-valued navigation
+   * properties are joined, once per path; any other
+   * expression is translated by the expression visitor.
+   */
+  private OrderColumn resolveOrderColumn(
+      OrderByItem item,
+      EdmEntitySet edmEntitySet,
+      String mainTableAlias,
+      QueryJoins joins,
+      QueryArguments arguments,
+      int firstLiteral)
+      throws ODataApplicationException {
+    Expression expression = item.getExpression();
+    if (expression instanceof Member && isPropertyPath(((Member) expression).getResourcePath().getUriResourceParts())
+        && !isComputedReference((Member) expression, edmEntitySet, arguments)) {
+      List<UriResource> segments = ((Member) expression).getResourcePath().getUriResourceParts();
+      String alias = mainTableAlias;
+      EdmEntitySet currentEntitySet = edmEntitySet;
+      StringBuilder path = new StringBuilder();
+      for (int i = 0; i < segments.size() - 1; i++) {
+        org.apache.olingo.commons.api.edm.EdmNavigationProperty navProp =
+            ((UriResourceNavigation) segments.get(i)).getProperty();
+        path.append(path.isEmpty() ? "" : "/").append(navProp.getName());
+        alias = joins.join(path.toString(), alias, currentEntitySet, navProp);
+        currentEntitySet = (EdmEntitySet) currentEntitySet.getRelatedBindingTarget(navProp.getName());
+      }
+      org.apache.olingo.commons.api.edm.EdmProperty edmProperty =
+          ((UriResourceProperty) segments.getLast()).getProperty();
+      boolean nullable = !(alias.equals(mainTableAlias)
+          && isKeyProperty(currentEntitySet.getEntityType(), edmProperty.getName()));
+      return new OrderColumn(alias + "." + edmProperty.getName(), List.of(), item.isDescending(),
+          edmProperty.getType(), nullable);
+    }
+    List<ParameterBinder> params = new ArrayList<>();
+    String sql = translateExpression(expression,
+        new ODataSqlExpressionVisitor(mainTableAlias, edmEntitySet, joins, params, arguments, firstLiteral));
+    return new OrderColumn(sql, params, item.isDescending(), null, true);
+  }
+
+  /**
+   * The navigation joins of one query. Single-valued navigation paths used by
+   * $filter and $orderby are LEFT JOINed once each, using the foreign keys read from
+   * the database schema.
+   */
+  private class QueryJoins implements NavigationResolver {
+    private final StringBuilder joinClause = new StringBuilder();
+    private final java.util.Map<String, String> aliases = new java.util.HashMap<>();
+
+    @Override
+    public Join resolve(EdmEntitySet source, org.apache.olingo.commons.api.edm.EdmNavigationProperty navProp)
+        throws ODataApplicationException {
+      return resolveNavigation(source, navProp);
+    }
+
+    @Override
+    public String join(String path, String sourceAlias, EdmEntitySet source,
+        org.apache.olingo.commons.api.edm.EdmNavigationProperty navProp) throws ODataApplicationException {
+      String alias = aliases.get(path);
+      if (alias != null) {
+        return alias;
+      }
+      if (navProp.isCollection()) {
+        throw new ODataApplicationException("Unsupported navigation path: " + path,
+            HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+      }
+      Join join = resolveNavigation(source, navProp);
+      alias = "J" + aliases.size();
+      joinClause
+          .append(" LEFT JOIN ")
+          .append(join.targetTable)
+          .append(" ")
+          .append(alias)
+          .append(" ON ")
+          .append(sourceAlias)
+          .append(".")
+          .append(join.parentColumn)
+          .append(" = ")
+          .append(alias)
+          .append(".")
+          .append(join.relatedColumn);
+      aliases.put(path, alias);
+      return alias;
+    }
+
+    /** The LEFT JOINs written so far, to follow the FROM table. */
+    String getJoinClause() {
+      return joinClause.toString();
+    }
+  }
+
+  /**
+   * Whether a member path is a property reached through single-valued navigation
+   * properties only, so it can be read from a joined column.
+   */
+  private boolean isPropertyPath(List<UriResource> segments) {
+    if (!(segments.getLast() instanceof UriResourceProperty)) {
+      return false;
+    }
+    for (int i = 0; i < segments.size() - 1; i++) {
+      if (!(segments.get(i) instanceof UriResourceNavigation)
+          || ((UriResourceNavigation) segments.get(i)).getProperty().isCollection()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Whether a member names a $compute alias rather than a declared property.
+   */
+  private boolean isComputedReference(Member member, EdmEntitySet edmEntitySet, QueryArguments arguments) {
+    List<UriResource> segments = member.getResourcePath().getUriResourceParts();
+    if (segments.size() != 1) {
+      return false;
+    }
+    String name = ((UriResourceProperty) segments.getFirst()).getProperty().getName();
+    return arguments.getComputedExpression(name) != null
+        && edmEntitySet.getEntityType().getProperty(name) == null;
+  }
+
+  private boolean isKeyProperty(EdmEntityType edmEntityType, String propertyName) {
+    for (org.apache.olingo.commons.api.edm.EdmKeyPropertyRef keyRef : edmEntityType.getKeyPropertyRefs()) {
+      if (keyRef.getName().equals(propertyName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Append the key columns not already ordered on as an ascending tiebreaker.
+   */
+  private void appendKeyOrderColumns(List<OrderColumn> orderColumns, EdmEntityType edmEntityType, String tableAlias) {
+    for (org.apache.olingo.commons.api.edm.EdmKeyPropertyRef keyRef : edmEntityType.getKeyPropertyRefs()) {
+      String expression = tableAlias + "." + keyRef.getName();
+      boolean present = false;
+      for (OrderColumn column : orderColumns) {
+        if (column.expression.equals(expression)) {
+          present = true;
+          break;
+        }
+      }
+      if (!present) {
+        orderColumns.add(new OrderColumn(expression, List.of(), false,
+            edmEntityType.getStructuralProperty(keyRef.getName()).getType(), false));
+      }
+    }
+  }
+
+  private void appendOrderBy(StringBuilder sql, List<ParameterBinder> params, List<OrderColumn> orderColumns) {
+    sql.append(" ORDER BY ");
+    for (int i = 0; i < orderColumns.size(); i++) {
+      OrderColumn column = orderColumns.get(i);
+      if (i > 0) {
+        sql.append(", ");
+      }
+      sql.append(column.expression).append(column.descending ? " DESC" : " ASC");
+      params.addAll(column.params);
+      if (column.nullable) {
+        sql.append(column.descending ? " NULLS FIRST" : " NULLS LAST");
+      }
+    }
+  }
+
+  /**
+   * Append a predicate selecting the rows that sort after the given order values.
+   * When every column has the same direction and no value is NULL this is a single
+   * row-value comparison, which PostgreSQL turns into one index seek.
+   */
+  private void appendKeysetPredicate(
+      StringBuilder sql, List<ParameterBinder> params, List<OrderColumn> orderColumns, List<ParameterBinder> values) {
+    boolean uniform = true;
+    for (int i = 0; i < orderColumns.size(); i++) {
+      if (values.get(i) == null || orderColumns.get(i).descending != orderColumns.getFirst().descending) {
+        uniform = false;
+        break;
+      }
+    }
+
+    sql.append("(");
+    if (uniform) {
+      sql.append("(");
+      for (int i = 0; i < orderColumns.size(); i++) {
+        sql.append(i > 0 ? ", " : "");
+        appendExpression(sql, params, orderColumns.get(i));
+      }
+      sql.append(orderColumns.getFirst().descending ? ") < (" : ") > (");
+      for (int i = 0; i < orderColumns.size(); i++) {
+        sql.append(i > 0 ? ", ?" : "?");
+        params.add(values.get(i));
+      }
+      sql.append(")");
+      if (!orderColumns.getFirst().descending) {
+        // NULLs sort last ascending but never satisfy the row comparison
+        for (int i = 0; i < orderColumns.size(); i++) {
+          if (orderColumns.get(i).nullable) {
+            sql.append(" OR (");
+            appendEqualPrefix(sql, params, orderColumns, values, i);
+            appendExpression(sql, params, orderColumns.get(i)).append(" IS NULL)");
+          }
+        }
+      }
+    } else {
+      boolean first = true;
+      for (int i = 0; i < orderColumns.size(); i++) {
+        OrderColumn column = orderColumns.get(i);
+        ParameterBinder value = values.get(i);
+        if (value == null && !column.descending) {
+          // Nothing sorts after NULL in an ascending NULLS LAST column
+          continue;
+        }
+        sql.append(first ? "(" : " OR (");
+        first = false;
+        appendEqualPrefix(sql, params, orderColumns, values, i);
+        if (value == null) {
+          appendExpression(sql, params, column).append(" IS NOT NULL");
+        } else if (column.descending) {
+          appendExpression(sql, params, column).append(" < ?");
+          params.add(value);
+        } else if (column.nullable) {
+          sql.append("(");
+          appendExpression(sql, params, column).append(" > ?");
+          params.add(value);
+          sql.append(" OR ");
+          appendExpression(sql, params, column).append(" IS NULL)");
+        } else {
+          appendExpression(sql, params, column).append(" > ?");
+          params.add(value);
+        }
+        sql.append(")");
+      }
+      if (first) {
+        sql.append("1 = 0");
+      }
+    }
+    sql.append(")");
+  }
+
+  private void appendEqualPrefix(
+      StringBuilder sql, List<ParameterBinder> params, List<OrderColumn> orderColumns, List<ParameterBinder> values,
+      int length) {
+    for (int j = 0; j < length; j++) {
+      if (values.get(j) == null) {
+        appendExpression(sql, params, orderColumns.get(j)).append(" IS NULL AND ");
+      } else {
+        appendExpression(sql, params, orderColumns.get(j)).append(" = ? AND ");
+        params.add(values.get(j));
+      }
+    }
+  }
+
+  /**
+   * Write an order column and bind the parameters its expression carries.
+   */
+  private StringBuilder appendExpression(StringBuilder sql, List<ParameterBinder> params, OrderColumn column) {
+    params.addAll(column.params);
+    return sql.append(column.expression);
+  }
+
+  /**
+   * Build the @odata.nextLink for the page after the current one: the original request
+   * with $skiptoken replaced, $skip dropped (the token already positions past it) and
+   * $top reduced by the rows already returned.
+   */
+  private java.net.URI buildNextLink(ODataRequest request, UriInfo uriInfo, SkipToken skipToken, int pageSize) {
+    StringBuilder query = nextLinkQuery(request, uriInfo, pageSize);
+    query.append(query.isEmpty() ? "" : "&").append("$skiptoken=").append(skipToken.encode());
+    return java.net.URI.create(request.getRawBaseUri() + request.getRawODataPath() + "?" + query);
+  }
+
+  /**
+   * Next page link of a result without a keyset, such as aggregated rows: the page
+   * after this one is addressed by $skip.
+   */
+  private java.net.URI buildSkipNextLink(ODataRequest request, UriInfo uriInfo, int pageSize) {
+    int skip = uriInfo.getSkipOption() == null ? 0 : uriInfo.getSkipOption().getValue();
+    StringBuilder query = nextLinkQuery(request, uriInfo, pageSize);
+    query.append(query.isEmpty() ? "" : "&").append("$skip=").append(skip + pageSize);
+    return java.net.URI.create(request.getRawBaseUri() + request.getRawODataPath() + "?" + query);
+  }
+
+  /**
+   * The request's query options for the next page, without the paging options and
+   * with $top reduced by the page just returned.
+   */
+  private StringBuilder nextLinkQuery(ODataRequest request, UriInfo uriInfo, int pageSize) {
+    StringBuilder query = new StringBuilder();
+    String rawQuery = request.getRawQueryPath();
+    if (rawQuery != null && !rawQuery.isEmpty()) {
+      for (String option : rawQuery.split("&")) {
+        String name = java.net.URLDecoder.decode(option.split("=", 2)[0], StandardCharsets.UTF_8);
+        if (name.equals("$skiptoken") || name.equals("$skip") || name.equals("$top")) {
+          continue;
+        }
+        query.append(query.isEmpty() ? "" : "&").append(option);
+      }
+    }
+    if (uriInfo.getTopOption() != null) {
+      query.append(query.isEmpty() ? "" : "&").append("$top=").append(uriInfo.getTopOption().getValue() - pageSize);
+    }
+    return query;
+  }
+
+  private SqlDialect getDialect(Connection conn) throws SQLException {
+    SqlDialect dialect = sqlDialect;
+    if (dialect == null) {
+      dialect = SqlDialect.detect(conn);
+      sqlDialect = dialect;
+    }
+    return dialect;
+  }
+
+  /**
+   * The dialect, detected on a connection of its own the first time.
+   */
+  private SqlDialect getDialect() throws SQLException {
+    SqlDialect dialect = sqlDialect;
+    if (dialect == null) {
+      try (Connection conn = dataSource.getConnection()) {
+        dialect = getDialect(conn);
+      }
+    }
+    return dialect;
+  }
+
+  private String getTableNameFromEntitySetName(String entitySetName) {
+    // Use the EdmProvider to get the actual table name from the database schema
+    String actualTableName = edmProvider.getActualTableNameForEntitySet(entitySetName);
+    if (actualTableName != null) {
+      return actualTableName;
+    }
+
+    // Fallback to the original logic if table not found in schema
+    logger.warn("Table not found in database schema for entity set: {}, using fallback logic", entitySetName);
+    String lowerCaseName = entitySetName.toLowerCase();
+    String singular;
+    if (lowerCaseName.endsWith("ies")) {
+      singular = lowerCaseName.substring(0, lowerCaseName.length() - 3) + "y";
+    } else if (lowerCaseName.endsWith("es")) {
+      singular = lowerCaseName.substring(0, lowerCaseName.length() - 2);
+    } else if (lowerCaseName.endsWith("s")) {
+      singular = lowerCaseName.substring(0, lowerCaseName.length() - 1);
+    } else {
+      singular = lowerCaseName;
+    }
+    // Also include schema prefix in fallback
+    return databaseSchema + "." + singular.toLowerCase();
+  }
+
+  @Override
+  public void createEntity(
+      ODataRequest request,
+      ODataResponse response,
+      UriInfo uriInfo,
+      ContentType requestFormat,
+      ContentType responseFormat)
+      throws ODataApplicationException, SerializerException {
+    EdmEntitySet edmEntitySet = ((UriResourceEntitySet) uriInfo.getUriResourceParts().getFirst()).getEntitySet();
+    EdmEntityType edmEntityType = edmEntitySet.getEntityType();
+    String tableName = getTableNameFromEntitySetName(edmEntitySet.getName());
+
+    try {
+      java.util.Map<String, Object> entityData;
+      if (requestFormat != null && requestFormat.isCompatible(ContentType.APPLICATION_XML)) {
+        String bodyString = new String(request.getBody().readAllBytes(), StandardCharsets.UTF_8);
+        logger.debug("createEntity raw body: {}", bodyString);
+        entityData = parseRequestBody(bodyString, requestFormat);
+      } else {
+        // JSON is read as a stream, so an array or collection payload is loaded in bulk
+        JsonEntityReader reader =
+            new JsonEntityReader(new java.io.InputStreamReader(request.getBody(), StandardCharsets.UTF_8));
+        if (reader.isCollection()) {
+          createEntities(response, edmEntitySet, reader);
+          return;
+        }
+        entityData = toEntityData(reader.getSingle());
+      }
+
+      boolean returnMinimal = isReturnMinimal(request);
+      Entity entity = null;
+      String keyName = edmEntityType.getKeyPropertyRefs().getFirst().getName();
+      if (hasNestedEntities(edmEntityType, entityData)) {
+        insertDeep(edmEntitySet, List.of(entityData));
+        if (!returnMinimal) {
+          // The parent row went out in a batch, so it is read back by its key
+          entity = selectStoredRow(edmEntitySet, findValueCaseInsensitive(entityData, keyName));
+        }
+      } else {
+        // Properties left out of the body take the column default or generated value
+        List<String> columns = insertColumns(edmEntityType, entityData);
+        List<Object> values = insertValues(entityData, columns);
+        String sql = insertSql(tableName, columns);
+        if (!returnMinimal) {
+          entity = insertReturning(edmEntitySet, sql, values);
+        } else if (columns.contains(keyName)) {
+          executeUpdate(sql, values);
+        } else {
+          // OData-EntityId needs the key the database generated
+          putColumn(entityData, keyName, insertReturningKey(sql, values, keyName));
+        }
+      }
+
+      if (entity == null) {
+        entity = entityFromData(edmEntitySet, entityData);
+      }
+
+      if (returnMinimal) {
+        response.setStatusCode(HttpStatusCode.NO_CONTENT.getStatusCode());
+        if (entity.getId() != null) {
+          String entityId = request.getRawBaseUri() + "/" + entity.getId();
+          response.setHeader(HttpHeader.ODATA_ENTITY_ID, entityId);
+          response.setHeader(HttpHeader.LOCATION, entityId);
+        }
+        response.setHeader(HttpHeader.PREFERENCE_APPLIED,
+            PreferencesApplied.with().returnRepresentation(Preferences.Return.MINIMAL).build().toValueString());
+        return;
+      }
+
+      ODataSerializer serializer = odata.createSerializer(responseFormat);
+      ContextURL contextUrl = ContextURL.with().entitySet(edmEntitySet).build();
+      EntitySerializerOptions options = EntitySerializerOptions.with().contextURL(contextUrl).build();
+      SerializerResult serializerResult = serializer.entity(serviceMetadata, edmEntityType, entity, options);
+
+      response.setContent(serializerResult.getContent());
+      response.setStatusCode(HttpStatusCode.CREATED.getStatusCode());
+      response.setHeader(HttpHeader.CONTENT_TYPE, responseFormat.toContentTypeString());
+
+    } catch (ODataApplicationException e) {
+      throw e;
+    } catch (Exception e) {
+      logger.error("Error creating entity: {}", e.getMessage(), e);
+      throw new ODataApplicationException("Error creating entity", 500, null);
+    }
+  }
+
+  private boolean isReturnMinimal(ODataRequest request) {
+    List<String> preferHeaders = request.getHeaders(HttpHeader.PREFER);
+    return preferHeaders != null && !preferHeaders.isEmpty()
+        && odata.createPreferences(preferHeaders).getReturn() == Preferences.Return.MINIMAL;
+  }
+
+  /**
+   * Run an INSERT and read the row back as stored, with database defaults, sequence
+   * values and trigger changes, in the same statement: with RETURNING on PostgreSQL
+   * and as the statement's generated keys elsewhere. Runs after the queued statements
+   * of the change set this thread is executing, on its connection.
+   *
+   * @return the stored entity, or null when the driver does not return the row
+   */
+  private Entity insertReturning(EdmEntitySet edmEntitySet, String sql, List<Object> values) throws SQLException {
+    List<org.apache.olingo.commons.api.edm.EdmProperty> properties = structuralProperties(edmEntitySet);
+    RowMapper rowMapper = RowMapper.forProperties(edmEntitySet.getName(), edmEntitySet.getEntityType(), properties, 1);
+    String[] columns = properties.stream().map(org.apache.olingo.commons.api.edm.EdmProperty::getName)
+        .toArray(String[]::new);
+
+    ChangeSet changeSet = changeSets.get();
+    if (changeSet != null) {
+      changeSet.flush();
+      return insertReturning(changeSet.conn, sql, values, columns, rowMapper);
+    }
+    try (Connection conn = dataSource.getConnection()) {
+      return insertReturning(conn, sql, values, columns, rowMapper);
+    }
+  }
+
+  private Entity insertReturning(Connection conn, String sql, List<Object> values, String[] columns,
+      RowMapper rowMapper) throws SQLException {
+    // RETURNING lists the columns so they come back in the order the mapper reads them
+    boolean returning = getDialect(conn) == SqlDialect.POSTGRESQL;
+    try (PreparedStatement stmt = returning
+        ? conn.prepareStatement(sql + " RETURNING " + String.join(", ", columns))
+        : conn.prepareStatement(sql, columns)) {
+      for (int i = 0; i < values.size(); i++) {
+        setParameterSafely(stmt, i + 1, values.get(i));
+      }
+      if (returning) {
+        try (ResultSet rs = stmt.executeQuery()) {
+          return rs.next() ? rowMapper.map(rs) : null;
+        }
+      }
+      stmt.executeUpdate();
+      try (ResultSet rs = stmt.getGeneratedKeys()) {
+        return rs.next() && rs.getMetaData().getColumnCount() == columns.length ? rowMapper.map(rs) : null;
+      }
+    }
+  }
+
+  /**
+   * Run an INSERT at once and return the key the database generated for it, on the
+   * connection of the change set this thread is executing when there is one.
+   */
+  private Object insertReturningKey(String sql, List<Object> values, String keyColumn) throws SQLException {
+    ChangeSet changeSet = changeSets.get();
+    if (changeSet != null) {
+      return changeSet.insertReturningKey(sql, values, keyColumn);
+    }
+    try (Connection conn = dataSource.getConnection()) {
+      return readGeneratedKey(conn, sql, values, keyColumn);
+    }
+  }
+
+  private Object readGeneratedKey(Connection conn, String sql, List<Object> values, String keyColumn)
+      throws SQLException {
+    try (PreparedStatement stmt = conn.prepareStatement(sql, new String[] { keyColumn })) {
+      for (int i = 0; i < values.size(); i++) {
+        setParameterSafely(stmt, i + 1, values.get(i));
+      }
+      stmt.executeUpdate();
+      try (ResultSet keys = stmt.getGeneratedKeys()) {
+        return keys.next() ? keys.getObject(1) : null;
+      }
+    }
+  }
+
+  /**
+   * Read a row as stored by its key, inside the change set this thread is executing
+   * when there is one.
+   *
+   * @return the stored entity, or null when no row has the key
+   */
+  private Entity selectStoredRow(EdmEntitySet edmEntitySet, Object keyValue) throws SQLException {
+    if (keyValue == null) {
+      return null;
+    }
+    EdmEntityType edmEntityType = edmEntitySet.getEntityType();
+    List<org.apache.olingo.commons.api.edm.EdmProperty> properties = structuralProperties(edmEntitySet);
+    RowMapper rowMapper = RowMapper.forProperties(edmEntitySet.getName(), edmEntityType, properties, 1);
+    StringBuilder sql = new StringBuilder("SELECT ");
+    for (int i = 0; i < properties.size(); i++) {
+      sql.append(i > 0 ? ", " : "").append(properties.get(i).getName());
+    }
+    sql.append(" FROM ").append(getTableNameFromEntitySetName(edmEntitySet.getName()))
+        .append(" WHERE ").append(edmEntityType.getKeyPropertyRefs().getFirst().getName()).append(" = ?");
+
+    ChangeSet changeSet = changeSets.get();
+    if (changeSet != null) {
+      changeSet.flush();
+      return selectStoredRow(changeSet.conn, sql.toString(), keyValue, rowMapper);
+    }
+    try (Connection conn = dataSource.getConnection()) {
+      return selectStoredRow(conn, sql.toString(), keyValue, rowMapper);
+    }
+  }
+
+  private Entity selectStoredRow(Connection conn, String sql, Object keyValue, RowMapper rowMapper)
+      throws SQLException {
+    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+      setParameterSafely(stmt, 1, keyValue);
+      try (ResultSet rs = stmt.executeQuery()) {
+        return rs.next() ? rowMapper.map(rs) : null;
+      }
+    }
+  }
+
+  private List<org.apache.olingo.commons.api.edm.EdmProperty> structuralProperties(EdmEntitySet edmEntitySet) {
+    EdmEntityType edmEntityType = edmEntitySet.getEntityType();
+    List<org.apache.olingo.commons.api.edm.EdmProperty> properties = new ArrayList<>();
+    for (String propName : edmEntityType.getPropertyNames()) {
+      if (edmEntityType.getNavigationProperty(propName) == null) {
+        properties.add(edmEntityType.getStructuralProperty(propName));
+      }
+    }
+    return properties;
+  }
+
+  /**
+   * The created entity as sent by the client, for when the stored row is not read back.
+   */
+  private Entity entityFromData(EdmEntitySet edmEntitySet, java.util.Map<String, Object> entityData) {
+    EdmEntityType edmEntityType = edmEntitySet.getEntityType();
+    Entity entity = new Entity();
+    List<org.apache.olingo.commons.api.edm.EdmKeyPropertyRef> keyRefs = edmEntityType.getKeyPropertyRefs();
+    if (!keyRefs.isEmpty()) {
+      String keyName = keyRefs.getFirst().getName();
+      Object newEntityId = entityData.get(keyName);
+      if (newEntityId == null) {
+        newEntityId = findValueCaseInsensitive(entityData, keyName);
+      }
+      if (newEntityId != null) {
+        entity.setId(java.net.URI.create(edmEntitySet.getName() + "(" + newEntityId + ")"));
+      }
+    }
+
+    for (String propName : edmEntityType.getPropertyNames()) {
+      if (edmEntityType.getNavigationProperty(propName) == null) {
+        Object value = entityData.get(propName);
+        if (value == null) {
+          value = findValueCaseInsensitive(entityData, propName);
+        }
+        if (value != null) {
+          entity.addProperty(new Property(null, propName, ValueType.PRIMITIVE, value));
+        }
+      }
+    }
+    return entity;
+  }
+
+  private boolean hasNestedEntities(EdmEntityType edmEntityType, java.util.Map<String, Object> entityData) {
+    for (String navName : edmEntityType.getNavigationPropertyNames()) {
+      Object nested = entityData.get(navName);
+      if (nested instanceof JSONObject || nested instanceof org.json.JSONArray) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Deep insert: insert entities together with the related entities nested in their
+   * navigation properties, in the change set of the request or in a transaction of
+   * their own.
+   */
+  private void insertDeep(EdmEntitySet edmEntitySet, List<java.util.Map<String, Object>> rows)
+      throws SQLException, ODataApplicationException {
+    ChangeSet changeSet = changeSets.get();
+    if (changeSet != null) {
+      insertDeep(changeSet, edmEntitySet, rows);
+      return;
+    }
+    try (Connection conn = dataSource.getConnection()) {
+      conn.setAutoCommit(false);
+      ChangeSet transaction = new ChangeSet(conn);
+      try {
+        insertDeep(transaction, edmEntitySet, rows);
+        transaction.flush();
+        conn.commit();
+      } catch (SQLException | ODataApplicationException | RuntimeException e) {
+        conn.rollback();
+        throw e;
+      } finally {
+        transaction.close();
+        conn.setAutoCommit(true);
+      }
+    }
+  }
+
+  /**
+   * Insert rows of one entity set in dependency order: the entities they reference
+   * first, so their keys fill the rows' foreign keys, then the rows, then the entities
+   * referencing them with foreign keys set from the rows. Each step handles the
+   * related entities of all rows at once, so rows of one table go out as one batch.
+   */
+  private void insertDeep(ChangeSet changeSet, EdmEntitySet edmEntitySet, List<java.util.Map<String, Object>> rows)
+      throws SQLException, ODataApplicationException {
+    EdmEntityType edmEntityType = edmEntitySet.getEntityType();
+    for (String navName : edmEntityType.getNavigationPropertyNames()) {
+      org.apache.olingo.commons.api.edm.EdmNavigationProperty navProp = edmEntityType.getNavigationProperty(navName);
+      if (navProp.isCollection()) {
+        continue;
+      }
+      List<java.util.Map<String, Object>> referenced = new ArrayList<>();
+      List<java.util.Map<String, Object>> referencing = new ArrayList<>();
+      for (java.util.Map<String, Object> row : rows) {
+        if (row.get(navName) instanceof JSONObject) {
+          referenced.add(toEntityData((JSONObject) row.get(navName)));
+          referencing.add(row);
+        }
+      }
+      if (!referenced.isEmpty()) {
+        NavigationResolver.Join join = resolveNavigation(edmEntitySet, navProp);
+        insertDeep(changeSet, join.targetEntitySet, referenced);
+        for (int i = 0; i < referenced.size(); i++) {
+          putColumn(referencing.get(i), join.parentColumn, findValueCaseInsensitive(referenced.get(i), join.relatedColumn));
+        }
+      }
+    }
+
+    insertRows(changeSet, edmEntitySet, rows);
+
+    for (String navName : edmEntityType.getNavigationPropertyNames()) {
+      org.apache.olingo.commons.api.edm.EdmNavigationProperty navProp = edmEntityType.getNavigationProperty(navName);
+      if (!navProp.isCollection()) {
+        continue;
+      }
+      NavigationResolver.Join join = null;
+      List<java.util.Map<String, Object>> related = new ArrayList<>();
+      for (java.util.Map<String, Object> row : rows) {
+        if (!(row.get(navName) instanceof org.json.JSONArray)) {
+          continue;
+        }
+        if (join == null) {
+          join = resolveNavigation(edmEntitySet, navProp);
+        }
+        Object parentValue = findValueCaseInsensitive(row, join.parentColumn);
+        for (Object item : (org.json.JSONArray) row.get(navName)) {
+          if (!(item instanceof JSONObject)) {
+            throw new ODataApplicationException("Related entities of " + navName + " must be objects",
+                HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+          }
+          java.util.Map<String, Object> child = toEntityData((JSONObject) item);
+          putColumn(child, join.relatedColumn, parentValue);
+          related.add(child);
+        }
+      }
+      if (!related.isEmpty()) {
+        insertDeep(changeSet, join.targetEntitySet, related);
+      }
+    }
+  }
+
+  /**
+   * Insert rows into the table of an entity set. Rows carrying their key are queued
+   * as one batch; a row without one is inserted at once and the key the database
+   * generated is stored in the row, so related rows can refer to it.
+   */
+  private void insertRows(ChangeSet changeSet, EdmEntitySet edmEntitySet, List<java.util.Map<String, Object>> rows)
+      throws SQLException {
+    EdmEntityType edmEntityType = edmEntitySet.getEntityType();
+    String tableName = getTableNameFromEntitySetName(edmEntitySet.getName());
+    String keyName = edmEntityType.getKeyPropertyRefs().getFirst().getName();
+    for (java.util.Map<String, Object> row : rows) {
+      List<String> columns = insertColumns(edmEntityType, row);
+      List<Object> values = insertValues(row, columns);
+      String sql = insertSql(tableName, columns);
+      if (columns.contains(keyName)) {
+        changeSet.add(sql, values);
+      } else {
+        putColumn(row, keyName, changeSet.insertReturningKey(sql, values, keyName));
+      }
+    }
+  }
+
+  /**
+   * Set a column value in entity data, replacing a value stored under another case
+   * of the name.
+   */
+  private void putColumn(java.util.Map<String, Object> entityData, String column, Object value) {
+    entityData.keySet().removeIf(key -> key.equalsIgnoreCase(column));
+    entityData.put(column, value);
+  }
+
+  /**
+   * Insert the entities of a JSON array or collection payload as they are read from
+   * the request body, in chunks of odata.bulk.batchsize rows. Each chunk is loaded in
+   * its own transaction, with COPY on PostgreSQL when odata.bulk.copy is set and as
+   * one JDBC batch otherwise; if that fails, the chunk is retried row by row so only
+   * the failing rows are rejected. The response reports the inserted row count and
+   * the index and error of each rejected row.
+   */
+  private void createEntities(ODataResponse response, EdmEntitySet edmEntitySet, JsonEntityReader reader)
+      throws SQLException {
+    EdmEntityType edmEntityType = edmEntitySet.getEntityType();
+    String tableName = getTableNameFromEntitySetName(edmEntitySet.getName());
 
-          if (hasExpand) {
-            String expandText = uriInfo.getExpandOption().getText();
-            org.apache.olingo.commons.api.edm.EdmNavigationProperty navProp = edmEntityType
-                .getNavigationProperty(expandText);
-            if (navProp != null) {
-              EdmBindingTarget target = edmEntitySet.getRelatedBindingTarget(expandText);
-              if (target instanceof EdmEntitySet) {
-                EdmEntitySet targetEntitySet = (EdmEntitySet) target;
-                org.apache.olingo.commons.api.edm.EdmEntityType targetEntityType = targetEntitySet.getEntityType();
-                Entity expandedEntity = new Entity();
-                boolean expandedEntityHasData = false;
-                for (String propertyName : targetEntityType.getPropertyNames()) {
-                  org.apache.olingo.commons.api.edm.EdmProperty targetEdmProperty = targetEntityType
-                      .getStructuralProperty(propertyName);
-                  if (targetEdmProperty != null) {
-                    String aliasedColumnName = navProp.getName() + "_" + propertyName;
-                    Object value = getResultSetValue(rs, aliasedColumnName, targetEdmProperty.getType());
-                    if (value != null) {
-                      expandedEntity.addProperty(
-                          new Property(null, propertyName, ValueType.PRIMITIVE, value));
-                      expandedEntityHasData = true;
-                    }
-                  }
-                }
-                if (expandedEntityHasData) {
-                  currentEntity.addProperty(
-                      new Property(null, navProp.getName(), ValueType.ENTITY, expandedEntity));
-                }
-              }
-            }
-          }
-          entityCollection.getEntities().add(currentEntity);
-          foundAny = true;
-          logger.debug("getData: Found row for entity set {}", entitySetName);
-        }
-        if (!foundAny) {
-          logger.debug("getData: No rows found for SQL: {}", sql);
+    ChangeSet changeSet = changeSets.get();
+    if (changeSet != null) {
+      // A change set is all or nothing, so its rows join its transaction as one batch
+      long queued = 0;
+      for (JSONObject row = reader.next(); row != null; row = reader.next()) {
+        if (row.has("@removed") || row.has("@odata.removed")) {
+          throw new SQLException("Deleted entities cannot be created");
         }
+        java.util.Map<String, Object> data = toEntityData(row);
+        List<String> columns = insertColumns(edmEntityType, data);
+        changeSet.add(insertSql(tableName, columns), insertValues(data, columns));
+        queued++;
       }
-    } catch (SQLException e) {
-      logger.error("getData: SQLException: {}", e.getMessage(), e);
-      throw new RuntimeException("Database error: " + e.getMessage(), e);
-    }
-    if (uriInfo.getCountOption() != null && uriInfo.getCountOption().getValue()) {
-      entityCollection.setCount(entityCollection.getEntities().size());
+      writeBulkResult(response, queued, new org.json.JSONArray());
+      return;
     }
-    return entityCollection;
-  }
 
-  private String getTableNameFromEntitySetName(String entitySetName) {
-    // Use the EdmProvider to get the actual table name from the database schema
-    String actualTableName = edmProvider.getActualTableNameForEntitySet(entitySetName);
-    if (actualTableName != null) {
-      return actualTableName;
+    org.json.JSONArray errors = new org.json.JSONArray();
+    long inserted = 0;
+    int index = 0;
+    // Consecutive rows with the same properties share a chunk; a row with other
+    // properties loads the chunk so far and starts the next one
+    List<String> chunkColumns = null;
+    List<List<Object>> chunk = new ArrayList<>();
+    List<Integer> chunkIndexes = new ArrayList<>();
+    try (Connection conn = dataSource.getConnection()) {
+      boolean copy = bulkCopy && getDialect(conn) == SqlDialect.POSTGRESQL;
+      while (true) {
+        JSONObject row;
+        try {
+          row = reader.next();
+        } catch (org.json.JSONException e) {
+          // The rest of the payload cannot be read, but earlier rows are still loaded
+          errors.put(bulkError(index, "Malformed payload: " + e.getMessage()));
+          break;
+        }
+        if (row == null) {
+          break;
+        }
+        if (row.has("@removed") || row.has("@odata.removed")) {
+          errors.put(bulkError(index++, "Deleted entities cannot be created"));
+          continue;
+        }
+        java.util.Map<String, Object> data = toEntityData(row);
+        List<String> columns = insertColumns(edmEntityType, data);
+        if (!chunk.isEmpty() && (chunk.size() >= bulkBatchSize || !columns.equals(chunkColumns))) {
+          inserted += loadChunk(conn, copy, tableName, chunkColumns, chunk, chunkIndexes, errors);
+          chunk.clear();
+          chunkIndexes.clear();
+        }
+        chunkColumns = columns;
+        chunk.add(insertValues(data, columns));
+        chunkIndexes.add(index++);
+      }
+      if (!chunk.isEmpty()) {
+        inserted += loadChunk(conn, copy, tableName, chunkColumns, chunk, chunkIndexes, errors);
+      }
     }
 
-    // Fallback to the original logic if table not found in schema
-    logger.warn("Table not found in database schema for entity set: {}, using fallback logic", entitySetName);
-    String lowerCaseName = entitySetName.toLowerCase();
-    String singular;
-    if (lowerCaseName.endsWith("ies")) {
-      singular = lowerCaseName.substring(0, lowerCaseName.length() - 3) + "y";
-    } else if (lowerCaseName.endsWith("es")) {
-      singular = lowerCaseName.substring(0, lowerCaseName.length() - 2);
-    } else if (lowerCaseName.endsWith("s")) {
-      singular = lowerCaseName.substring(0, lowerCaseName.length() - 1);
-    } else {
-      singular = lowerCaseName;
-    }
-    // Also include schema prefix in fallback
-    return databaseSchema + "." + singular.toLowerCase();
+    writeBulkResult(response, inserted, errors);
   }
 
-  private Object getResultSetValue(
-      ResultSet rs, String columnName, org.apache.olingo.commons.api.edm.EdmType edmType)
-      throws SQLException {
-    if (edmType.getKind() == EdmTypeKind.PRIMITIVE) {
-      String typeName = edmType.getName();
-      try {
-        if (rs.getObject(columnName) == null) {
-          return null;
-        }
-      } catch (SQLException e) {
-        logger.trace("Column '{}' not found in ResultSet.", columnName);
-        return null;
+  /**
+   * Columns of an INSERT for one row: the structural properties the row has, explicit
+   * nulls included. Absent properties and a null key are left out, so column
+   * defaults and generated keys apply.
+   */
+  private List<String> insertColumns(EdmEntityType edmEntityType, java.util.Map<String, Object> row) {
+    String keyName = edmEntityType.getKeyPropertyRefs().getFirst().getName();
+    List<String> columns = new ArrayList<>();
+    for (String propName : edmEntityType.getPropertyNames()) {
+      if (edmEntityType.getNavigationProperty(propName) != null) {
+        continue;
       }
-      switch (typeName) {
-        case "Int32":
-          return rs.getInt(columnName);
-        case "String":
-          return rs.getString(columnName);
-        case "Double":
-          return rs.getDouble(columnName);
-        case "Boolean":
-          return rs.getBoolean(columnName);
-        case "Date":
-          return rs.getDate(columnName);
-        case "DateTimeOffset":
-          return rs.getTimestamp(columnName);
-        default:
-          return rs.getObject(columnName);
+      boolean present = row.containsKey(propName)
+          || row.keySet().stream().anyMatch(key -> key.equalsIgnoreCase(propName));
+      if (present && !(propName.equals(keyName) && insertValue(row, propName) == null)) {
+        columns.add(propName);
       }
     }
-    return null;
+    return columns;
   }
 
-  @Override
-  public void createEntity(
-      ODataRequest request,
-      ODataResponse response,
-      UriInfo uriInfo,
-      ContentType requestFormat,
-      ContentType responseFormat)
-      throws ODataApplicationException, SerializerException {
-    EdmEntitySet edmEntitySet = ((UriResourceEntitySet) uriInfo.getUriResourceParts().getFirst()).getEntitySet();
-    EdmEntityType edmEntityType = edmEntitySet.getEntityType();
-    String tableName = getTableNameFromEntitySetName(edmEntitySet.getName());
-
-    try (Connection conn = dataSource.getConnection()) {
-      java.io.InputStream bodyStream = request.getBody();
-      String bodyString = new String(bodyStream.readAllBytes(), StandardCharsets.UTF_8);
-      logger.debug("createEntity raw body: {}", bodyString);
+  private List<Object> insertValues(java.util.Map<String, Object> row, List<String> columns) {
+    List<Object> values = new ArrayList<>(columns.size());
+    for (String column : columns) {
+      values.add(insertValue(row, column));
+    }
+    return values;
+  }
 
-      // Parse data based on content type
-      java.util.Map<String, Object> entityData = parseRequestBody(bodyString, requestFormat);
+  private Object insertValue(java.util.Map<String, Object> row, String column) {
+    Object value = row.containsKey(column) ? row.get(column) : findValueCaseInsensitive(row, column);
+    return value == JSONObject.NULL ? null : value;
+  }
 
-      StringBuilder columns = new StringBuilder();
-      StringBuilder placeholders = new StringBuilder();
-      List<Object> values = new ArrayList<>();
+  private static String insertSql(String tableName, List<String> columns) {
+    if (columns.isEmpty()) {
+      return "INSERT INTO " + tableName + " DEFAULT VALUES";
+    }
+    return "INSERT INTO " + tableName + " (" + String.join(", ", columns) + ") VALUES ("
+        + String.join(", ", java.util.Collections.nCopies(columns.size(), "?")) + ")";
+  }
 
-      for (String propName : edmEntityType.getPropertyNames()) {
-        if (edmEntityType.getNavigationProperty(propName) == null) { // Ignore navigation properties
-          if (!columns.isEmpty()) {
-            columns.append(", ");
-            placeholders.append(", ");
-          }
-          columns.append(propName);
-          placeholders.append("?");
+  private void writeBulkResult(ODataResponse response, long inserted, org.json.JSONArray errors) {
+    JSONObject result = new JSONObject();
+    result.put("inserted", inserted);
+    result.put("failed", errors.length());
+    result.put("errors", errors);
+    response.setContent(new java.io.ByteArrayInputStream(result.toString().getBytes(StandardCharsets.UTF_8)));
+    response.setStatusCode(errors.isEmpty()
+        ? HttpStatusCode.CREATED.getStatusCode() : HttpStatusCode.OK.getStatusCode());
+    response.setHeader(HttpHeader.CONTENT_TYPE, ContentType.APPLICATION_JSON.toContentTypeString());
+  }
 
-          Object value = entityData.get(propName);
-          if (value == null) {
-            // Try case-insensitive lookup
-            value = findValueCaseInsensitive(entityData, propName);
+  /**
+   * Load one chunk of a bulk insert.
+   *
+   * @return rows inserted
+   */
+  private int loadChunk(Connection conn, boolean copy, String tableName, List<String> columns,
+      List<List<Object>> rows, List<Integer> indexes, org.json.JSONArray errors) throws SQLException {
+    conn.setAutoCommit(false);
+    try (PreparedStatement insert = conn.prepareStatement(insertSql(tableName, columns))) {
+      try {
+        if (copy && !columns.isEmpty()) {
+          copyRows(conn, tableName, columns, rows);
+        } else {
+          for (List<Object> row : rows) {
+            for (int i = 0; i < row.size(); i++) {
+              setParameterSafely(insert, i + 1, row.get(i));
+            }
+            insert.addBatch();
           }
-          values.add(value);
+          insert.executeBatch();
         }
+        conn.commit();
+        return rows.size();
+      } catch (SQLException e) {
+        logger.debug("Bulk chunk failed, retrying row by row: {}", e.getMessage());
+        conn.rollback();
+        insert.clearBatch();
       }
-
-      String sql = "INSERT INTO " + tableName + " (" + columns + ") VALUES (" + placeholders + ")";
-
-      try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-        for (int i = 0; i < values.size(); i++) {
-          setParameterSafely(stmt, i + 1, values.get(i));
+      int inserted = 0;
+      for (int r = 0; r < rows.size(); r++) {
+        try {
+          List<Object> row = rows.get(r);
+          for (int i = 0; i < row.size(); i++) {
+            setParameterSafely(insert, i + 1, row.get(i));
+          }
+          insert.executeUpdate();
+          conn.commit();
+          inserted++;
+        } catch (SQLException e) {
+          conn.rollback();
+          errors.put(bulkError(indexes.get(r), e.getMessage()));
         }
-        stmt.executeUpdate();
       }
+      return inserted;
+    } finally {
+      conn.setAutoCommit(true);
+    }
+  }
 
-      Entity entity = new Entity();
-      List<org.apache.olingo.commons.api.edm.EdmKeyPropertyRef> keyRefs = edmEntityType.getKeyPropertyRefs();
-      if (!keyRefs.isEmpty()) {
-        String keyName = keyRefs.getFirst().getName();
-        Object newEntityId = entityData.get(keyName);
-        if (newEntityId == null) {
-          newEntityId = findValueCaseInsensitive(entityData, keyName);
-        }
-        if (newEntityId != null) {
-          entity.setId(java.net.URI.create(edmEntitySet.getName() + "(" + newEntityId + ")"));
+  /**
+   * Stream rows into a PostgreSQL table with COPY FROM STDIN in CSV format, where an
+   * unquoted empty field is NULL.
+   */
+  private void copyRows(Connection conn, String tableName, List<String> columns, List<List<Object>> rows)
+      throws SQLException {
+    StringBuilder csv = new StringBuilder();
+    for (List<Object> row : rows) {
+      for (int i = 0; i < row.size(); i++) {
+        if (i > 0) {
+          csv.append(',');
         }
-      }
-
-      for (String propName : edmEntityType.getPropertyNames()) {
-        if (edmEntityType.getNavigationProperty(propName) == null) {
-          Object value = entityData.get(propName);
-          if (value == null) {
-            value = findValueCaseInsensitive(entityData, propName);
-          }
-          if (value != null) {
-            entity.addProperty(new Property(null, propName, ValueType.PRIMITIVE, value));
-          }
+        if (row.get(i) != null) {
+          csv.append('"').append(row.get(i).toString().replace("\"", "\"\"")).append('"');
         }
       }
-
-      ODataSerializer serializer = odata.createSerializer(responseFormat);
-      ContextURL contextUrl = ContextURL.with().entitySet(edmEntitySet).build();
-      EntitySerializerOptions options = EntitySerializerOptions.with().contextURL(contextUrl).build();
-      SerializerResult serializerResult = serializer.entity(serviceMetadata, edmEntityType, entity, options);
-
-      response.setContent(serializerResult.getContent());
-      response.setStatusCode(HttpStatusCode.CREATED.getStatusCode());
-      response.setHeader(HttpHeader.CONTENT_TYPE, responseFormat.toContentTypeString());
-
-    } catch (Exception e) {
-      logger.error("Error creating entity: {}", e.getMessage(), e);
-      throw new ODataApplicationException("Error creating entity", 500, null);
+      csv.append('\n');
+    }
+    org.postgresql.copy.CopyManager copyManager = conn.unwrap(org.postgresql.PGConnection.class).getCopyAPI();
+    try {
+      copyManager.copyIn("COPY " + tableName + " (" + String.join(", ", columns) + ") FROM STDIN WITH (FORMAT csv)",
+          new java.io.StringReader(csv.toString()));
+    } catch (java.io.IOException e) {
+      throw new SQLException("COPY failed: " + e.getMessage(), e);
     }
   }
 
+  private JSONObject bulkError(int index, String message) {
+    return new JSONObject().put("index", index).put("message", message);
+  }
+
   /**
    * Parse request body based on content type (XML or JSON)
    */
@@ -636,9 +2885,11 @@ public class DefaultProcessor implements EntityCollectionProcessor, EntityProces
    * Parse JSON body
    */
   private java.util.Map<String, Object> parseJsonBody(String jsonString) throws Exception {
-    java.util.Map<String, Object> result = new java.util.HashMap<>();
-    JSONObject json = new JSONObject(jsonString);
+    return toEntityData(new JSONObject(jsonString));
+  }
 
+  private java.util.Map<String, Object> toEntityData(JSONObject json) {
+    java.util.Map<String, Object> result = new java.util.HashMap<>();
     for (String key : json.keySet()) {
       result.put(key, json.get(key));
     }
@@ -695,6 +2946,17 @@ public class DefaultProcessor implements EntityCollectionProcessor, EntityProces
     return null;
   }
 
+  /**
+   * Convert a key predicate from the resource path, stripping the quotes of string keys
+   */
+  private Object convertKeyPredicate(UriParameter keyParam, EdmEntityType edmEntityType) {
+    String text = keyParam.getText();
+    if (text != null && text.length() >= 2 && text.startsWith("'") && text.endsWith("'")) {
+      text = text.substring(1, text.length() - 1).replace("''", "'");
+    }
+    return convertKeyValue(text, edmEntityType.getProperty(keyParam.getName()));
+  }
+
   /**
    * Convert URL key value to proper data type based on EDM property type
    */
@@ -702,9 +2964,12 @@ public class DefaultProcessor implements EntityCollectionProcessor, EntityProces
     if (keyValueString == null || edmElement == null) {
       return keyValueString;
     }
+    return convertKeyValue(keyValueString, edmElement.getType());
+  }
 
+  private Object convertKeyValue(String keyValueString, org.apache.olingo.commons.api.edm.EdmType edmType) {
+    String typeName = edmType.getName();
     try {
-      String typeName = edmElement.getType().getName();
 
       switch (typeName) {
         case "Int32":
@@ -715,6 +2980,14 @@ public class DefaultProcessor implements EntityCollectionProcessor, EntityProces
           return Double.parseDouble(keyValueString);
         case "Boolean":
           return Boolean.parseBoolean(keyValueString);
+        case "Decimal":
+          return new java.math.BigDecimal(keyValueString);
+        case "Date":
+          return java.sql.Date.valueOf(keyValueString);
+        case "DateTimeOffset":
+          return keyValueString.indexOf('T') >= 0
+              ? java.sql.Timestamp.from(java.time.OffsetDateTime.parse(keyValueString).toInstant())
+              : java.sql.Timestamp.valueOf(keyValueString);
         case "String":
           return keyValueString;
         default:
@@ -722,8 +2995,7 @@ public class DefaultProcessor implements EntityCollectionProcessor, EntityProces
           return keyValueString;
       }
     } catch (Exception e) {
-      logger.warn("Could not convert key value '{}' to type '{}': {}", keyValueString, edmElement.getType().getName(),
-          e.getMessage());
+      logger.warn("Could not convert key value '{}' to type '{}': {}", keyValueString, typeName, e.getMessage());
       return keyValueString; // Fallback to string
     }
   }
@@ -742,6 +3014,8 @@ public class DefaultProcessor implements EntityCollectionProcessor, EntityProces
       stmt.setLong(parameterIndex, (Long) value);
     } else if (value instanceof Double) {
       stmt.setDouble(parameterIndex, (Double) value);
+    } else if (value instanceof java.math.BigDecimal) {
+      stmt.setBigDecimal(parameterIndex, (java.math.BigDecimal) value);
     } else if (value instanceof Boolean) {
       stmt.setBoolean(parameterIndex, (Boolean) value);
     } else if (value instanceof java.sql.Timestamp) {
@@ -782,53 +3056,98 @@ public class DefaultProcessor implements EntityCollectionProcessor, EntityProces
     String tableName = getTableNameFromEntitySetName(edmEntitySet.getName());
     List<org.apache.olingo.commons.api.edm.EdmKeyPropertyRef> keyRefs = edmEntityType.getKeyPropertyRefs();
 
-    try (Connection conn = dataSource.getConnection()) {
-      java.io.InputStream bodyStream = request.getBody();
-      String bodyString = new String(bodyStream.readAllBytes(), StandardCharsets.UTF_8);
-      logger.debug("updateEntity raw body: {}", bodyString);
-
-      // Parse data based on content type (same as createEntity)
-      java.util.Map<String, Object> entityData = parseRequestBody(bodyString, requestFormat);
+    try {
+      java.util.Map<String, Object> entityData;
+      if (requestFormat != null && requestFormat.isCompatible(ContentType.APPLICATION_XML)) {
+        String bodyString = new String(request.getBody().readAllBytes(), StandardCharsets.UTF_8);
+        logger.debug("updateEntity raw body: {}", bodyString);
+        entityData = parseRequestBody(bodyString, requestFormat);
+      } else {
+        JsonEntityReader reader =
+            new JsonEntityReader(new java.io.InputStreamReader(request.getBody(), StandardCharsets.UTF_8));
+        if (reader.isCollection()) {
+          throw new ODataApplicationException("An update body must be a single entity",
+              HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+        }
+        entityData = toEntityData(reader.getSingle());
+      }
 
-      StringBuilder updateSql = new StringBuilder("UPDATE " + tableName + " SET ");
+      // PATCH writes only the properties in the body, explicit nulls included; PUT
+      // replaces the entity, so properties left out are set to null
+      boolean replace = request.getMethod() == org.apache.olingo.commons.api.http.HttpMethod.PUT;
+      String keyCol = keyRefs.getFirst().getName();
+      List<String> columns = new ArrayList<>();
       List<Object> values = new ArrayList<>();
-      int propCount = 0;
       for (String propName : edmEntityType.getPropertyNames()) {
-        Object value = entityData.get(propName);
-        if (value == null) {
-          // Try case-insensitive lookup
-          value = findValueCaseInsensitive(entityData, propName);
+        if (propName.equals(keyCol) || edmEntityType.getNavigationProperty(propName) != null) {
+          continue;
         }
-        if (value != null) {
-          if (propCount++ > 0) {
-            updateSql.append(", ");
+        boolean present = entityData.containsKey(propName) || entityData.keySet().stream()
+            .anyMatch(key -> key.equalsIgnoreCase(propName));
+        if (present || replace) {
+          Object value = entityData.containsKey(propName)
+              ? entityData.get(propName) : findValueCaseInsensitive(entityData, propName);
+          columns.add(propName);
+          values.add(value == JSONObject.NULL ? null : value);
+        }
+      }
+      Object keyValue = convertKeyPredicate(keyPredicates.getFirst(), edmEntityType);
+
+      // The upsert inserts a missing entity, so the body has to make a complete row;
+      // otherwise only an existing entity is updated
+      List<String> missing = new ArrayList<>();
+      List<String> nulled = new ArrayList<>();
+      for (String required : edmProvider.getRequiredColumns(edmEntitySet.getName())) {
+        int index = columns.indexOf(required);
+        if (!required.equalsIgnoreCase(keyCol) && (index < 0 || values.get(index) == null)) {
+          missing.add(required);
+          if (index >= 0) {
+            nulled.add(required);
           }
-          updateSql.append(propName).append(" = ?");
-          values.add(value);
         }
       }
-
-      if (propCount == 0) {
+      if (!nulled.isEmpty()) {
+        // A PUT leaving these out, or an explicit null, would write NULL into them
+        throw new ODataApplicationException("The body has no value for " + String.join(", ", nulled),
+            HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+      }
+      boolean insertable = !columns.isEmpty() && missing.isEmpty();
+
+      String sql;
+      if (upsert && request.getHeader(HttpHeader.IF_MATCH) == null && insertable) {
+        // Insert the entity when its key is missing, without reading it first
+        sql = getDialect().upsert(tableName, keyCol, columns);
+        values.addFirst(keyValue);
+      } else if (upsert && request.getHeader(HttpHeader.IF_MATCH) == null) {
+        boolean exists;
+        if (columns.isEmpty()) {
+          exists = selectStoredRow(edmEntitySet, keyValue) != null;
+        } else {
+          exists = executeCountedUpdate(updateSql(tableName, keyCol, columns), append(values, keyValue)) > 0;
+        }
+        if (!exists) {
+          throw new ODataApplicationException(columns.isEmpty()
+              ? "The entity does not exist and the body has no properties to create it from"
+              : "The entity does not exist and the body has no value for " + String.join(", ", missing),
+              HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+        }
+        response.setStatusCode(HttpStatusCode.NO_CONTENT.getStatusCode());
+        return;
+      } else if (columns.isEmpty()) {
         logger.warn("No properties to update for entity");
         response.setStatusCode(HttpStatusCode.NO_CONTENT.getStatusCode());
         return;
+      } else {
+        sql = updateSql(tableName, keyCol, columns);
+        values.add(keyValue);
       }
 
-      String keyCol = keyRefs.getFirst().getName();
-      updateSql.append(" WHERE ").append(keyCol).append(" = ?");
-      Object keyValue = convertKeyValue(keyPredicates.getFirst().getText(), edmEntityType.getProperty(keyCol));
-      values.add(keyValue);
-
-      logger.debug("updateEntity SQL: {}", updateSql.toString());
-
-      try (PreparedStatement stmt = conn.prepareStatement(updateSql.toString())) {
-        for (int i = 0; i < values.size(); i++) {
-          setParameterSafely(stmt, i + 1, values.get(i));
-        }
-        stmt.executeUpdate();
-      }
+      logger.debug("updateEntity SQL: {}", sql);
+      executeUpdate(sql, values);
 
       response.setStatusCode(HttpStatusCode.NO_CONTENT.getStatusCode());
+    } catch (ODataApplicationException e) {
+      throw e;
     } catch (Exception e) {
       logger.error("Error updating entity: {}", e.getMessage(), e);
       throw new ODataApplicationException(
@@ -836,6 +3155,20 @@ public class DefaultProcessor implements EntityCollectionProcessor, EntityProces
     }
   }
 
+  private static String updateSql(String tableName, String keyCol, List<String> columns) {
+    StringBuilder sql = new StringBuilder("UPDATE " + tableName + " SET ");
+    for (int i = 0; i < columns.size(); i++) {
+      sql.append(i > 0 ? ", " : "").append(columns.get(i)).append(" = ?");
+    }
+    return sql.append(" WHERE ").append(keyCol).append(" = ?").toString();
+  }
+
+  private static List<Object> append(List<Object> values, Object value) {
+    List<Object> all = new ArrayList<>(values);
+    all.add(value);
+    return all;
+  }
+
   @Override
   public void deleteEntity(ODataRequest request, ODataResponse response, UriInfo uriInfo)
       throws ODataApplicationException {
@@ -855,16 +3188,284 @@ public class DefaultProcessor implements EntityCollectionProcessor, EntityProces
     String keyCol = keyRefs.getFirst().getName();
     Object keyValue = convertKeyValue(keyPredicates.getFirst().getText(), edmEntityType.getProperty(keyCol));
 
-    try (Connection conn = dataSource.getConnection()) {
+    try {
       String sql = "DELETE FROM " + tableName + " WHERE " + keyCol + " = ?";
-      try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-        setParameterSafely(stmt, 1, keyValue);
-        stmt.executeUpdate();
-      }
+      executeUpdate(sql, java.util.Collections.singletonList(keyValue));
       response.setStatusCode(HttpStatusCode.NO_CONTENT.getStatusCode());
     } catch (Exception e) {
       logger.error("Error deleting entity: {}", e.getMessage(), e);
       throw new ODataApplicationException("Error deleting entity", 500, null);
     }
   }
+
+  /**
+   * Run an INSERT, UPDATE or DELETE on its own connection, or queue it in the change
+   * set this thread is executing.
+   */
+  private void executeUpdate(String sql, List<Object> values) throws SQLException {
+    ChangeSet changeSet = changeSets.get();
+    if (changeSet != null) {
+      changeSet.add(sql, values);
+      return;
+    }
+    try (Connection conn = dataSource.getConnection();
+        PreparedStatement stmt = conn.prepareStatement(sql)) {
+      for (int i = 0; i < values.size(); i++) {
+        setParameterSafely(stmt, i + 1, values.get(i));
+      }
+      stmt.executeUpdate();
+    }
+  }
+
+  /**
+   * Run an UPDATE at once and return the number of rows it changed, in the change
+   * set this thread is executing when there is one.
+   */
+  private int executeCountedUpdate(String sql, List<Object> values) throws SQLException {
+    ChangeSet changeSet = changeSets.get();
+    if (changeSet != null) {
+      changeSet.flush();
+      return executeCountedUpdate(changeSet.conn, sql, values);
+    }
+    try (Connection conn = dataSource.getConnection()) {
+      return executeCountedUpdate(conn, sql, values);
+    }
+  }
+
+  private int executeCountedUpdate(Connection conn, String sql, List<Object> values) throws SQLException {
+    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+      for (int i = 0; i < values.size(); i++) {
+        setParameterSafely(stmt, i + 1, values.get(i));
+      }
+      return stmt.executeUpdate();
+    }
+  }
+
+  /**
+   * The statements of one $batch change set, run on one connection in one
+   * transaction. Consecutive statements with the same SQL, such as inserts into one
+   * table, are queued and sent together with executeBatch.
+   */
+  private class ChangeSet implements AutoCloseable {
+    private final Connection conn;
+    private String pendingSql;
+    private PreparedStatement pending;
+
+    ChangeSet(Connection conn) {
+      this.conn = conn;
+    }
+
+    void add(String sql, List<Object> values) throws SQLException {
+      if (!sql.equals(pendingSql)) {
+        flush();
+        pending = conn.prepareStatement(sql);
+        pendingSql = sql;
+      }
+      for (int i = 0; i < values.size(); i++) {
+        setParameterSafely(pending, i + 1, values.get(i));
+      }
+      pending.addBatch();
+    }
+
+    /**
+     * Run an INSERT at once, after the queued statements, and return the key the
+     * database generated for it.
+     */
+    Object insertReturningKey(String sql, List<Object> values, String keyColumn) throws SQLException {
+      flush();
+      return readGeneratedKey(conn, sql, values, keyColumn);
+    }
+
+    void flush() throws SQLException {
+      if (pending != null) {
+        try {
+          pending.executeBatch();
+        } finally {
+          pending.close();
+          pending = null;
+          pendingSql = null;
+        }
+      }
+    }
+
+    @Override
+    public void close() {
+      closeQuietly(pending);
+    }
+  }
+
+  @Override
+  public void processBatch(BatchFacade facade, ODataRequest request, ODataResponse response)
+      throws ODataApplicationException, ODataLibraryException {
+    String boundary = facade.extractBoundaryFromContentType(request.getHeader(HttpHeader.CONTENT_TYPE));
+    BatchOptions options = BatchOptions.with()
+        .rawBaseUri(request.getRawBaseUri())
+        .rawServiceResolutionUri(request.getRawServiceResolutionUri())
+        .build();
+    List<BatchRequestPart> parts =
+        odata.createFixedFormatDeserializer().parseBatchRequest(request.getBody(), boundary, options);
+
+    List<ODataResponsePart> responseParts = new ArrayList<>(parts.size());
+    int next = 0;
+    while (next < parts.size()) {
+      int end = next;
+      while (end < parts.size() && isParallelRead(parts.get(end))) {
+        end++;
+      }
+      if (end - next > 1) {
+        // Independent reads between change sets
+        responseParts.addAll(readInParallel(parts.subList(next, end)));
+        next = end;
+      } else {
+        responseParts.add(bufferResponses(facade.handleBatchRequest(parts.get(next++))));
+      }
+    }
+
+    String responseBoundary = "batch_" + java.util.UUID.randomUUID();
+    response.setContent(odata.createFixedFormatSerializer().batchResponse(responseParts, responseBoundary));
+    response.setStatusCode(HttpStatusCode.OK.getStatusCode());
+    response.setHeader(HttpHeader.CONTENT_TYPE, ContentType.MULTIPART_MIXED + ";boundary=" + responseBoundary);
+  }
+
+  /**
+   * Execute a change set on one connection in one transaction. Statements are
+   * queued per request and flushed in JDBC batches; the first failing request, or a
+   * failing batch, rolls the whole change set back.
+   */
+  @Override
+  public ODataResponsePart processChangeSet(BatchFacade facade, List<ODataRequest> requests)
+      throws ODataApplicationException, ODataLibraryException {
+    try (Connection conn = dataSource.getConnection()) {
+      conn.setAutoCommit(false);
+      ChangeSet changeSet = new ChangeSet(conn);
+      changeSets.set(changeSet);
+      try {
+        List<ODataResponse> responses = new ArrayList<>();
+        for (ODataRequest request : requests) {
+          ODataResponse response = facade.handleODataRequest(request);
+          if (response.getStatusCode() >= 400) {
+            conn.rollback();
+            return new ODataResponsePart(response, false);
+          }
+          responses.add(response);
+        }
+        changeSet.flush();
+        conn.commit();
+        return new ODataResponsePart(responses, true);
+      } catch (SQLException e) {
+        logger.error("Change set failed: {}", e.getMessage(), e);
+        conn.rollback();
+        return new ODataResponsePart(errorResponse(e.getMessage()), false);
+      } finally {
+        changeSets.remove();
+        changeSet.close();
+        conn.setAutoCommit(true);
+      }
+    } catch (SQLException e) {
+      logger.error("processChangeSet: SQLException: {}", e.getMessage(), e);
+      throw new ODataApplicationException("Database error: " + e.getMessage(),
+          HttpStatusCode.INTERNAL_SERVER_ERROR.getStatusCode(), Locale.ENGLISH, e);
+    }
+  }
+
+  private boolean isParallelRead(BatchRequestPart part) {
+    return batchParallelism > 1 && !part.isChangeSet()
+        && part.getRequests().getFirst().getMethod() == org.apache.olingo.commons.api.http.HttpMethod.GET;
+  }
+
+  /**
+   * Run GET parts on the shared pool of odata.batch.parallelism threads. A handler
+   * keeps per-request state, so each part borrows one of the pool's handlers.
+   */
+  private List<ODataResponsePart> readInParallel(List<BatchRequestPart> parts) throws ODataApplicationException {
+    java.util.concurrent.ExecutorService executor = batchExecutor();
+    List<java.util.concurrent.Future<ODataResponsePart>> results = new ArrayList<>(parts.size());
+    try {
+      for (BatchRequestPart part : parts) {
+        results.add(executor.submit(() -> {
+          org.apache.olingo.server.api.ODataHandler handler = batchHandlers.take();
+          try {
+            return bufferResponses(new ODataResponsePart(handler.process(part.getRequests().getFirst()), false));
+          } finally {
+            batchHandlers.add(handler);
+          }
+        }));
+      }
+      List<ODataResponsePart> responseParts = new ArrayList<>(parts.size());
+      for (java.util.concurrent.Future<ODataResponsePart> result : results) {
+        responseParts.add(result.get());
+      }
+      return responseParts;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      results.forEach(result -> result.cancel(true));
+      throw new ODataApplicationException("Batch interrupted",
+          HttpStatusCode.INTERNAL_SERVER_ERROR.getStatusCode(), Locale.ENGLISH, e);
+    } catch (java.util.concurrent.ExecutionException e) {
+      results.forEach(result -> result.cancel(true));
+      throw new ODataApplicationException("Batch read failed: " + e.getCause().getMessage(),
+          HttpStatusCode.INTERNAL_SERVER_ERROR.getStatusCode(), Locale.ENGLISH, e.getCause());
+    }
+  }
+
+  /**
+   * The thread pool for parallel $batch reads and its handlers, one per thread, each
+   * registered with this processor once. A full queue runs the part on the calling
+   * thread.
+   */
+  private synchronized java.util.concurrent.ExecutorService batchExecutor() {
+    if (batchExecutor == null) {
+      batchHandlers = new java.util.concurrent.ArrayBlockingQueue<>(batchParallelism);
+      for (int i = 0; i < batchParallelism; i++) {
+        org.apache.olingo.server.api.ODataHandler handler = odata.createRawHandler(serviceMetadata);
+        handler.register(this);
+        batchHandlers.add(handler);
+      }
+      java.util.concurrent.atomic.AtomicInteger threads = new java.util.concurrent.atomic.AtomicInteger();
+      batchExecutor = new java.util.concurrent.ThreadPoolExecutor(batchParallelism, batchParallelism,
+          0L, java.util.concurrent.TimeUnit.MILLISECONDS,
+          new java.util.concurrent.ArrayBlockingQueue<>(BATCH_QUEUE_SIZE),
+          runnable -> {
+            Thread thread = new Thread(runnable, "odata-batch-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          },
+          new java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy());
+    }
+    return batchExecutor;
+  }
+
+  @jakarta.annotation.PreDestroy
+  synchronized void shutdownBatchExecutor() {
+    if (batchExecutor != null) {
+      batchExecutor.shutdownNow();
+    }
+  }
+
+  /**
+   * Write streamed response bodies into memory, since the batch response serializer
+   * only reads fixed content.
+   */
+  private ODataResponsePart bufferResponses(ODataResponsePart part) {
+    for (ODataResponse response : part.getResponses()) {
+      if (response.getODataContent() != null) {
+        java.io.ByteArrayOutputStream content = new java.io.ByteArrayOutputStream();
+        response.getODataContent().write(content);
+        response.setContent(new java.io.ByteArrayInputStream(content.toByteArray()));
+      }
+    }
+    return part;
+  }
+
+  private ODataResponse errorResponse(String message) {
+    ODataResponse response = new ODataResponse();
+    response.setStatusCode(HttpStatusCode.INTERNAL_SERVER_ERROR.getStatusCode());
+    JSONObject error = new JSONObject()
+        .put("code", JSONObject.NULL)
+        .put("message", message == null ? JSONObject.NULL : message);
+    response.setContent(new java.io.ByteArrayInputStream(
+        new JSONObject().put("error", error).toString().getBytes(StandardCharsets.UTF_8)));
+    response.setHeader(HttpHeader.CONTENT_TYPE, "application/json");
+    return response;
+  }
 }
\ No newline at end of file
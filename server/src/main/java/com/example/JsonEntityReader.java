@@ -0,0 +1,105 @@
+package com.example;
+
+import java.io.Reader;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Reads the entities of a JSON request body one at a time, so a bulk load never
+ * holds the whole payload. The body is a single entity, an array of entities, or a
+ * collection or delta payload whose "value" array holds the entities.
+ */
+final class JsonEntityReader {
+
+    private final JSONTokener tokener;
+    private JSONObject single;
+    private boolean collection;
+    private boolean finished;
+
+    JsonEntityReader(Reader reader) {
+        this.tokener = new JSONTokener(reader);
+        open();
+    }
+
+    private void open() {
+        char c = tokener.nextClean();
+        if (c == '[') {
+            collection = true;
+            finished = tokener.nextClean() == ']';
+            if (!finished) {
+                tokener.back();
+            }
+            return;
+        }
+        if (c != '{') {
+            throw tokener.syntaxError("A JSON object or array must begin with '{' or '['");
+        }
+        // Read members until a "value" array shows this is a collection payload
+        single = new JSONObject();
+        c = tokener.nextClean();
+        while (c != '}') {
+            tokener.back();
+            String key = tokener.nextValue().toString();
+            if (tokener.nextClean() != ':') {
+                throw tokener.syntaxError("Expected ':' after a key");
+            }
+            if ("value".equals(key)) {
+                if (tokener.nextClean() == '[') {
+                    collection = true;
+                    single = null;
+                    finished = tokener.nextClean() == ']';
+                    if (!finished) {
+                        tokener.back();
+                    }
+                    return;
+                }
+                tokener.back();
+            }
+            single.put(key, tokener.nextValue());
+            c = tokener.nextClean();
+            if (c == ',') {
+                c = tokener.nextClean();
+            } else if (c != '}') {
+                throw tokener.syntaxError("Expected ',' or '}'");
+            }
+        }
+    }
+
+    /**
+     * Whether the body holds a collection of entities rather than a single one.
+     */
+    boolean isCollection() {
+        return collection;
+    }
+
+    /**
+     * The entity of a single-entity body.
+     */
+    JSONObject getSingle() {
+        return single;
+    }
+
+    /**
+     * The next entity of a collection body, or null after the last one.
+     *
+     * @throws JSONException when the payload is malformed; the remaining entities cannot be read
+     */
+    JSONObject next() {
+        if (!collection || finished) {
+            return null;
+        }
+        Object value = tokener.nextValue();
+        char c = tokener.nextClean();
+        if (c == ']') {
+            finished = true;
+        } else if (c != ',') {
+            throw tokener.syntaxError("Expected ',' or ']'");
+        }
+        if (!(value instanceof JSONObject)) {
+            throw tokener.syntaxError("Collection entries must be JSON objects");
+        }
+        return (JSONObject) value;
+    }
+}
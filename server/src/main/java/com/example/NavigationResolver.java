@@ -0,0 +1,47 @@
+package com.example;
+
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.edm.EdmNavigationProperty;
+import org.apache.olingo.server.api.ODataApplicationException;
+
+/**
+ * Resolves the navigation properties an expression walks through. A resolver belongs
+ * to one query: single-valued navigation properties are joined into that query,
+ * collections are read by correlated subqueries over their target table.
+ */
+public interface NavigationResolver {
+
+    /**
+     * Target of a navigation property and the columns relating it to its source.
+     */
+    Join resolve(EdmEntitySet source, EdmNavigationProperty navigationProperty) throws ODataApplicationException;
+
+    /**
+     * LEFT JOIN the target of a single-valued navigation path into the query, once
+     * per path.
+     *
+     * @return the alias of the joined table
+     */
+    String join(String path, String sourceAlias, EdmEntitySet source, EdmNavigationProperty navigationProperty)
+            throws ODataApplicationException;
+
+    /**
+     * How a navigation property relates two tables, read from the foreign keys of the
+     * database schema.
+     */
+    final class Join {
+        final EdmEntitySet targetEntitySet;
+        final String targetTable;
+        // Source column holding the join value: its foreign key, or its key for a collection
+        final String parentColumn;
+        // Target column matched against parentColumn
+        final String relatedColumn;
+
+        Join(EdmEntitySet targetEntitySet, String targetTable, String parentColumn, String relatedColumn) {
+            this.targetEntitySet = targetEntitySet;
+            this.targetTable = targetTable;
+            this.parentColumn = parentColumn;
+            this.relatedColumn = relatedColumn;
+        }
+    }
+}
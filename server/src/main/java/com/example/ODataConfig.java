@@ -10,6 +10,8 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.beans.factory.annotation.Autowired;
 import javax.sql.DataSource;
 
+import io.micrometer.core.instrument.binder.MeterBinder;
+
 import java.util.Collections;
 
 @Configuration
@@ -33,6 +35,11 @@ public class ODataConfig {
         return new DefaultProcessor();
     }
 
+    @Bean
+    public MeterBinder queryPlanCacheMetrics(DefaultProcessor defaultProcessor) {
+        return defaultProcessor.getPlanCache();
+    }
+
     @Bean
     public ServiceMetadata serviceMetadata(OData odata, DefaultEdmProvider defaultEdmProvider) {
         return odata.createServiceMetadata(defaultEdmProvider, Collections.emptyList());
@@ -24,6 +24,7 @@ import jakarta.servlet.http.HttpServletRequestWrapper;
 public class ODataSpringServlet extends HttpServlet {
 
     private static final Logger logger = LoggerFactory.getLogger(ODataSpringServlet.class);
+    private static final long MAX_LOGGED_BODY_BYTES = 1024 * 1024;
     private final ODataHttpHandler handler;
 
     @Autowired
@@ -35,8 +36,11 @@ public class ODataSpringServlet extends HttpServlet {
     protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         long startTime = System.currentTimeMillis();
 
-        // Wrap request to allow reading body multiple times
-        CachedBodyHttpServletRequest wrappedRequest = new CachedBodyHttpServletRequest(req);
+        // Wrap request to allow reading body multiple times; bodies of unknown or large
+        // size, such as bulk inserts, are streamed to the handler without being logged
+        long contentLength = req.getContentLengthLong();
+        HttpServletRequest wrappedRequest = contentLength >= 0 && contentLength <= MAX_LOGGED_BODY_BYTES
+                ? new CachedBodyHttpServletRequest(req) : req;
 
         // Log detailed request information
         logRequestDetails(wrappedRequest);
@@ -1,31 +1,88 @@
 package com.example;
 
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
 import org.apache.olingo.commons.api.edm.EdmEnumType;
+import org.apache.olingo.commons.api.edm.EdmNavigationProperty;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveType;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeException;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
 import org.apache.olingo.commons.api.edm.EdmType;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
 import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.UriResource;
+import org.apache.olingo.server.api.uri.UriResourceCount;
+import org.apache.olingo.server.api.uri.UriResourceLambdaAll;
+import org.apache.olingo.server.api.uri.UriResourceLambdaAny;
+import org.apache.olingo.server.api.uri.UriResourceLambdaVariable;
+import org.apache.olingo.server.api.uri.UriResourceNavigation;
+import org.apache.olingo.server.api.uri.UriResourceProperty;
 import org.apache.olingo.server.api.uri.queryoption.expression.BinaryOperatorKind;
 import org.apache.olingo.server.api.uri.queryoption.expression.Expression;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
 import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitor;
 import org.apache.olingo.server.api.uri.queryoption.expression.Literal;
 import org.apache.olingo.server.api.uri.queryoption.expression.Member;
 import org.apache.olingo.server.api.uri.queryoption.expression.MethodKind;
 import org.apache.olingo.server.api.uri.queryoption.expression.UnaryOperatorKind;
 
+/**
+ * Translates an OData expression tree ($filter, $orderby) into a SQL fragment.
+ * Literals are never inlined: each one becomes a '?' placeholder, and a binder that
+ * reads its value from the request's {@link QueryArguments} is appended to the
+ * parameter list in the order the placeholders appear in the generated SQL.
+ * Single-valued navigation paths are joined into the query through a
+ * {@link NavigationResolver}; any/all and $count over collections become correlated
+ * subqueries.
+ */
 public class ODataSqlExpressionVisitor implements ExpressionVisitor<String> {
 
+    private static final String NULL_LITERAL = "NULL";
+    private static final String PLACEHOLDER = "?";
+
     private final String mainTableAlias;
-    private final List<Object> parameters; // To store PreparedStatement parameters
+    private final EdmEntitySet entitySet;
+    private final NavigationResolver navigation;
+    private final List<ParameterBinder> parameters; // To store PreparedStatement parameters
+    private final QueryArguments arguments;
+    private int nextLiteral;
+    private int lastLiteralParameter = -1;
+    // Subquery alias and entity set of each lambda variable in scope
+    private final Map<String, LambdaScope> lambdaScopes = new HashMap<>();
+    private int subqueries;
+
+    private static final class LambdaScope {
+        final String alias;
+        final EdmEntitySet entitySet;
 
-    public ODataSqlExpressionVisitor(String mainTableAlias, List<Object> parameters) {
+        LambdaScope(String alias, EdmEntitySet entitySet) {
+            this.alias = alias;
+            this.entitySet = entitySet;
+        }
+    }
+
+    /**
+     * @param entitySet    entity set {@code mainTableAlias} reads
+     * @param navigation   resolves navigation properties of member paths
+     * @param firstLiteral index in {@code arguments} of the expression's first literal
+     */
+    public ODataSqlExpressionVisitor(String mainTableAlias, EdmEntitySet entitySet, NavigationResolver navigation,
+            List<ParameterBinder> parameters, QueryArguments arguments, int firstLiteral) {
         this.mainTableAlias = mainTableAlias;
+        this.entitySet = entitySet;
+        this.navigation = navigation;
         this.parameters = parameters;
+        this.arguments = arguments;
+        this.nextLiteral = firstLiteral;
     }
 
-    public List<Object> getParameters() {
+    public List<ParameterBinder> getParameters() {
         return parameters;
     }
 
@@ -33,15 +90,36 @@ public class ODataSqlExpressionVisitor implements ExpressionVisitor<String> {
     public String visitBinaryOperator(BinaryOperatorKind operator, String left, String right) throws ODataApplicationException {
         String sqlOperator;
         switch (operator) {
-            case EQ:    sqlOperator = "="; break;
-            case NE:    sqlOperator = "<>"; break;
+            case EQ:
+                if (NULL_LITERAL.equals(right)) {
+                    return "(" + left + " IS NULL)";
+                }
+                if (NULL_LITERAL.equals(left)) {
+                    return "(" + right + " IS NULL)";
+                }
+                sqlOperator = "=";
+                break;
+            case NE:
+                if (NULL_LITERAL.equals(right)) {
+                    return "(" + left + " IS NOT NULL)";
+                }
+                if (NULL_LITERAL.equals(left)) {
+                    return "(" + right + " IS NOT NULL)";
+                }
+                sqlOperator = "<>";
+                break;
             case GT:    sqlOperator = ">"; break;
             case GE:    sqlOperator = ">="; break;
             case LT:    sqlOperator = "<"; break;
             case LE:    sqlOperator = "<="; break;
             case AND:   sqlOperator = "AND"; break;
             case OR:    sqlOperator = "OR"; break;
-            // Add more operators as needed
+            case ADD:   sqlOperator = "+"; break;
+            case SUB:   sqlOperator = "-"; break;
+            case MUL:   sqlOperator = "*"; break;
+            case DIV:   sqlOperator = "/"; break;
+            case MOD:
+                return "MOD(" + left + ", " + right + ")";
             default:
                 throw new ODataApplicationException("Unsupported binary operator: " + operator.name(),
                     HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
@@ -51,43 +129,291 @@ public class ODataSqlExpressionVisitor implements ExpressionVisitor<String> {
 
     @Override
     public String visitUnaryOperator(UnaryOperatorKind operator, String operand) throws ODataApplicationException {
-        String sqlOperator;
         switch (operator) {
-            case NOT: sqlOperator = "NOT"; break;
-            // Add more operators as needed
+            case NOT:
+                return "(NOT " + operand + ")";
+            case MINUS:
+                return "(-" + operand + ")";
             default:
                 throw new ODataApplicationException("Unsupported unary operator: " + operator.name(),
                     HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
         }
-        return sqlOperator + " " + operand;
     }
 
     @Override
     public String visitMethodCall(MethodKind method, List<String> parameters) throws ODataApplicationException {
-        // Implement method calls like contains, startswith, endswith, etc.
-        // This is complex and will require careful mapping to SQL functions.
-        throw new ODataApplicationException("Unsupported method call: " + method.name(),
-            HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+        switch (method) {
+            case CONTAINS:
+                return like(parameters, true, true);
+            case STARTSWITH:
+                return like(parameters, false, true);
+            case ENDSWITH:
+                return like(parameters, true, false);
+            case LENGTH:
+                return "LENGTH(" + parameters.get(0) + ")";
+            case INDEXOF:
+                // POSITION takes the arguments in reverse order, so their binders swap too
+                swapArgumentBinders(parameters.get(0), parameters.get(1));
+                return "(POSITION(" + parameters.get(1) + " IN " + parameters.get(0) + ") - 1)";
+            case SUBSTRING:
+                if (parameters.size() > 2) {
+                    return "SUBSTRING(" + parameters.get(0) + " FROM (" + parameters.get(1) + " + 1) FOR "
+                        + parameters.get(2) + ")";
+                }
+                return "SUBSTRING(" + parameters.get(0) + " FROM (" + parameters.get(1) + " + 1))";
+            case TOLOWER:
+                return "LOWER(" + parameters.get(0) + ")";
+            case TOUPPER:
+                return "UPPER(" + parameters.get(0) + ")";
+            case TRIM:
+                return "TRIM(" + parameters.get(0) + ")";
+            case CONCAT:
+                return "(" + parameters.get(0) + " || " + parameters.get(1) + ")";
+            case YEAR:
+                return extract("YEAR", parameters.get(0));
+            case MONTH:
+                return extract("MONTH", parameters.get(0));
+            case DAY:
+                return extract("DAY", parameters.get(0));
+            case HOUR:
+                return extract("HOUR", parameters.get(0));
+            case MINUTE:
+                return extract("MINUTE", parameters.get(0));
+            case SECOND:
+                return extract("SECOND", parameters.get(0));
+            case DATE:
+                return "CAST(" + parameters.get(0) + " AS DATE)";
+            case TIME:
+                return "CAST(" + parameters.get(0) + " AS TIME)";
+            case NOW:
+                return "CURRENT_TIMESTAMP";
+            case ROUND:
+                return "ROUND(" + parameters.get(0) + ")";
+            case FLOOR:
+                return "FLOOR(" + parameters.get(0) + ")";
+            case CEILING:
+                return "CEILING(" + parameters.get(0) + ")";
+            default:
+                throw new ODataApplicationException("Unsupported method call: " + method.name(),
+                    HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+        }
+    }
+
+    /**
+     * Move the binders of the second of two method arguments in front of those of the
+     * first, for SQL that writes the arguments in reverse order. The arguments were
+     * visited last, so their binders end the list, one per placeholder in their SQL.
+     */
+    private void swapArgumentBinders(String first, String second) {
+        int firstCount = countPlaceholders(first);
+        int secondCount = countPlaceholders(second);
+        if (firstCount == 0 || secondCount == 0) {
+            return;
+        }
+        List<ParameterBinder> secondBinders = parameters.subList(parameters.size() - secondCount, parameters.size());
+        List<ParameterBinder> moved = new ArrayList<>(secondBinders);
+        secondBinders.clear();
+        parameters.addAll(parameters.size() - firstCount, moved);
+        lastLiteralParameter = -1;
+    }
+
+    private static int countPlaceholders(String sql) {
+        int count = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            if (sql.charAt(i) == '?') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * contains/startswith/endswith as LIKE. A literal pattern argument is escaped and
+     * wrapped in the bound parameter itself, so startswith keeps a constant prefix the
+     * database can use with an index.
+     */
+    private String like(List<String> parameters, boolean leadingWildcard, boolean trailingWildcard) {
+        String subject = parameters.get(0);
+        String pattern = parameters.get(1);
+        int lastIndex = this.parameters.size() - 1;
+        if (PLACEHOLDER.equals(pattern) && lastIndex >= 0 && lastIndex == lastLiteralParameter
+                && arguments.getLiteral(nextLiteral - 1) instanceof String) {
+            ParameterBinder literal = this.parameters.get(lastIndex);
+            String prefix = leadingWildcard ? "%" : "";
+            String suffix = trailingWildcard ? "%" : "";
+            this.parameters.set(lastIndex, args -> prefix + escapeLike((String) literal.bind(args)) + suffix);
+            return "(" + subject + " LIKE ? ESCAPE '\\')";
+        }
+        return "(" + subject + " LIKE " + (leadingWildcard ? "'%' || " : "") + pattern
+            + (trailingWildcard ? " || '%'" : "") + ")";
+    }
+
+    static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private String extract(String field, String operand) {
+        return "CAST(EXTRACT(" + field + " FROM " + operand + ") AS INTEGER)";
     }
 
     @Override
     public String visitLiteral(Literal literal) throws ODataApplicationException {
-        // Add parameter to the list for PreparedStatement
-        parameters.add(literal.getText()); // This might need type conversion
-        return "?";
+        if (literal.getType() == null && "null".equals(literal.getText())) {
+            return NULL_LITERAL;
+        }
+        // Bind the request's value of this literal; QueryArguments converted it already
+        int index = nextLiteral++;
+        parameters.add(args -> args.getLiteral(index));
+        lastLiteralParameter = parameters.size() - 1;
+        return PLACEHOLDER;
+    }
+
+    /**
+     * Convert a literal to the Java type JDBC expects for its EDM type.
+     */
+    static Object convertLiteral(Literal literal) throws ODataApplicationException {
+        if (!(literal.getType() instanceof EdmPrimitiveType)) {
+            return literal.getText();
+        }
+        EdmPrimitiveType type = (EdmPrimitiveType) literal.getType();
+        try {
+            String text = type.fromUriLiteral(literal.getText());
+            Integer precision = isTemporal(type) ? Integer.valueOf(12) : null;
+            Object value = type.valueOfString(text, null, null, precision, null, null, type.getDefaultType());
+            return toJdbcValue(value, type);
+        } catch (EdmPrimitiveTypeException e) {
+            throw new ODataApplicationException("Invalid literal: " + literal.getText(),
+                HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH, e);
+        }
+    }
+
+    private static boolean isTemporal(EdmPrimitiveType type) {
+        String name = type.getName();
+        return name.equals(EdmPrimitiveTypeKind.DateTimeOffset.name())
+            || name.equals(EdmPrimitiveTypeKind.TimeOfDay.name())
+            || name.equals(EdmPrimitiveTypeKind.Duration.name());
+    }
+
+    private static Object toJdbcValue(Object value, EdmPrimitiveType type) {
+        if (value instanceof Byte || value instanceof Short) {
+            return ((Number) value).intValue();
+        }
+        if (value instanceof Calendar) {
+            Calendar calendar = (Calendar) value;
+            if (type.getName().equals(EdmPrimitiveTypeKind.TimeOfDay.name())) {
+                return java.sql.Time.valueOf(java.time.LocalTime.of(calendar.get(Calendar.HOUR_OF_DAY),
+                    calendar.get(Calendar.MINUTE), calendar.get(Calendar.SECOND)));
+            }
+            return java.sql.Date.valueOf(java.time.LocalDate.of(calendar.get(Calendar.YEAR),
+                calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH)));
+        }
+        return value;
     }
 
+    /**
+     * A property path such as {@code Price} or {@code Category/Name}, whose
+     * single-valued navigation properties are joined, or a lambda variable path inside
+     * any/all. A path ending in any, all or $count over a collection becomes a
+     * correlated subquery.
+     */
     @Override
-    public String visitMember(Member member) throws ODataApplicationException {
-        // This represents a property access (e.g., "Price")
-        // Need to get the property name and prepend the table alias
-        // member.getResourcePath().getUriResourceParts() will give the path segments
-        // For simple properties, it's just the property name
-        if (member.getResourcePath().getUriResourceParts().size() == 1) {
-            return mainTableAlias + "." + member.getResourcePath().getUriResourceParts().get(0).getSegmentValue();
+    public String visitMember(Member member) throws ExpressionVisitException, ODataApplicationException {
+        List<UriResource> segments = member.getResourcePath().getUriResourceParts();
+        if (segments.size() == 1 && segments.get(0) instanceof UriResourceProperty && entitySet != null) {
+            // A $compute alias stands for its expression over the same row
+            String name = ((UriResourceProperty) segments.get(0)).getProperty().getName();
+            Expression computed = arguments.getComputedExpression(name);
+            if (computed != null && entitySet.getEntityType().getProperty(name) == null) {
+                return "(" + computed.accept(new ODataSqlExpressionVisitor(mainTableAlias, entitySet, navigation,
+                        parameters, arguments, arguments.getComputeOffset(computed))) + ")";
+            }
+        }
+        String alias = mainTableAlias;
+        EdmEntitySet currentEntitySet = entitySet;
+        // Joins belong to the outer query, so they cannot follow a lambda variable
+        boolean joinable = true;
+        int first = 0;
+        if (segments.get(0) instanceof UriResourceLambdaVariable) {
+            String variable = ((UriResourceLambdaVariable) segments.get(0)).getVariableName();
+            LambdaScope scope = lambdaScopes.get(variable);
+            if (scope == null) {
+                throw new ODataApplicationException("Unknown lambda variable: " + variable,
+                    HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+            }
+            alias = scope.alias;
+            currentEntitySet = scope.entitySet;
+            joinable = false;
+            first = 1;
+        }
+
+        StringBuilder path = new StringBuilder();
+        for (int i = first; i < segments.size(); i++) {
+            UriResource segment = segments.get(i);
+            if (segment instanceof UriResourceProperty && i == segments.size() - 1) {
+                return alias + "." + ((UriResourceProperty) segment).getProperty().getName();
+            }
+            if (!(segment instanceof UriResourceNavigation) || navigation == null || currentEntitySet == null) {
+                break;
+            }
+            EdmNavigationProperty navProp = ((UriResourceNavigation) segment).getProperty();
+            if (navProp.isCollection()) {
+                if (i == segments.size() - 2) {
+                    return collectionSubquery(alias, currentEntitySet, navProp, segments.get(i + 1));
+                }
+                break;
+            }
+            if (!joinable) {
+                break;
+            }
+            path.append(path.isEmpty() ? "" : "/").append(navProp.getName());
+            alias = navigation.join(path.toString(), alias, currentEntitySet, navProp);
+            currentEntitySet = navigation.resolve(currentEntitySet, navProp).targetEntitySet;
         }
         throw new ODataApplicationException("Unsupported member expression",
-            HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+            HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+    }
+
+    /**
+     * any() and all() as EXISTS / NOT EXISTS over the related rows, and $count as a
+     * COUNT(*) subquery, each correlated through the navigation property's foreign key.
+     * all() requires the condition to be TRUE, so rows where it is NULL fail it.
+     */
+    private String collectionSubquery(String sourceAlias, EdmEntitySet source, EdmNavigationProperty navProp,
+            UriResource operation) throws ExpressionVisitException, ODataApplicationException {
+        NavigationResolver.Join join = navigation.resolve(source, navProp);
+        String alias = "S" + subqueries++;
+        String from = " FROM " + join.targetTable + " " + alias + " WHERE " + alias + "." + join.relatedColumn
+            + " = " + sourceAlias + "." + join.parentColumn;
+        if (operation instanceof UriResourceCount) {
+            return "(SELECT COUNT(*)" + from + ")";
+        }
+        String variable;
+        Expression condition;
+        boolean all = operation instanceof UriResourceLambdaAll;
+        if (operation instanceof UriResourceLambdaAny) {
+            variable = ((UriResourceLambdaAny) operation).getLambdaVariable();
+            condition = ((UriResourceLambdaAny) operation).getExpression();
+        } else if (all) {
+            variable = ((UriResourceLambdaAll) operation).getLambdaVariable();
+            condition = ((UriResourceLambdaAll) operation).getExpression();
+        } else {
+            throw new ODataApplicationException("Unsupported member expression",
+                HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+        }
+        if (condition == null) {
+            return "EXISTS (SELECT 1" + from + ")";
+        }
+
+        LambdaScope outer = lambdaScopes.put(variable, new LambdaScope(alias, join.targetEntitySet));
+        String conditionSql = condition.accept(this);
+        if (outer != null) {
+            lambdaScopes.put(variable, outer);
+        } else {
+            lambdaScopes.remove(variable);
+        }
+        return all
+            ? "(NOT EXISTS (SELECT 1" + from + " AND (" + conditionSql + ") IS NOT TRUE))"
+            : "EXISTS (SELECT 1" + from + " AND " + conditionSql + ")";
     }
 
     // Other visit methods for different expression types (e.g., LambdaExpression, TypeLiteral, etc.)
@@ -115,7 +441,7 @@ public class ODataSqlExpressionVisitor implements ExpressionVisitor<String> {
 
     @Override
     public String visitEnum(EdmEnumType type, List<String> enumValues) throws ODataApplicationException {
-        // Convert enum values to their string representation for SQL
+        // Convert enum values to bound string parameters
         if (enumValues == null || enumValues.isEmpty()) {
             throw new ODataApplicationException("Enum values are missing.",
                 HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
@@ -123,7 +449,9 @@ public class ODataSqlExpressionVisitor implements ExpressionVisitor<String> {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < enumValues.size(); i++) {
             if (i > 0) sb.append(", ");
-            sb.append("'").append(enumValues.get(i)).append("'");
+            sb.append(PLACEHOLDER);
+            int index = nextLiteral++;
+            parameters.add(args -> args.getLiteral(index));
         }
         return sb.toString();
     }
@@ -146,15 +474,15 @@ public class ODataSqlExpressionVisitor implements ExpressionVisitor<String> {
         // Binary operators with a list (e.g., IN) can be mapped to SQL IN clause
         if (operator == BinaryOperatorKind.IN) {
             StringBuilder sb = new StringBuilder();
-            sb.append(left).append(" IN (");
+            sb.append("(").append(left).append(" IN (");
             for (int i = 0; i < right.size(); i++) {
                 if (i > 0) sb.append(", ");
                 sb.append(right.get(i));
             }
-            sb.append(")");
+            sb.append("))");
             return sb.toString();
         }
         throw new ODataApplicationException("Unsupported binary operator with list: " + operator.name(),
             HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,12 @@
+package com.example;
+
+/**
+ * Produces the value of one statement parameter from the arguments of a request.
+ * A cached query plan keeps its binders, so its SQL can be reused by every request
+ * of the same shape however its literal values differ.
+ */
+@FunctionalInterface
+public interface ParameterBinder {
+
+    Object bind(QueryArguments arguments);
+}
@@ -0,0 +1,549 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.edm.EdmEnumType;
+import org.apache.olingo.commons.api.edm.EdmType;
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.api.uri.UriParameter;
+import org.apache.olingo.server.api.uri.UriResource;
+import org.apache.olingo.server.api.uri.UriResourceEntitySet;
+import org.apache.olingo.server.api.uri.UriResourceLambdaAll;
+import org.apache.olingo.server.api.uri.UriResourceLambdaAny;
+import org.apache.olingo.server.api.uri.UriResourceNavigation;
+import org.apache.olingo.server.api.uri.queryoption.ApplyItem;
+import org.apache.olingo.server.api.uri.queryoption.ApplyOption;
+import org.apache.olingo.server.api.uri.queryoption.ComputeItem;
+import org.apache.olingo.server.api.uri.queryoption.ExpandItem;
+import org.apache.olingo.server.api.uri.queryoption.ExpandOption;
+import org.apache.olingo.server.api.uri.queryoption.OrderByItem;
+import org.apache.olingo.server.api.uri.queryoption.SelectItem;
+import org.apache.olingo.server.api.uri.queryoption.SelectOption;
+import org.apache.olingo.server.api.uri.queryoption.apply.Aggregate;
+import org.apache.olingo.server.api.uri.queryoption.apply.AggregateExpression;
+import org.apache.olingo.server.api.uri.queryoption.apply.BottomTop;
+import org.apache.olingo.server.api.uri.queryoption.apply.Filter;
+import org.apache.olingo.server.api.uri.queryoption.apply.GroupBy;
+import org.apache.olingo.server.api.uri.queryoption.apply.GroupByItem;
+import org.apache.olingo.server.api.uri.queryoption.search.SearchBinary;
+import org.apache.olingo.server.api.uri.queryoption.search.SearchExpression;
+import org.apache.olingo.server.api.uri.queryoption.expression.BinaryOperatorKind;
+import org.apache.olingo.server.api.uri.queryoption.expression.Expression;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitor;
+import org.apache.olingo.server.api.uri.queryoption.expression.Literal;
+import org.apache.olingo.server.api.uri.queryoption.expression.Member;
+import org.apache.olingo.server.api.uri.queryoption.expression.MethodKind;
+import org.apache.olingo.server.api.uri.queryoption.expression.UnaryOperatorKind;
+
+/**
+ * The values of an entity set read that vary between requests of the same shape:
+ * the $filter and $orderby literals, key predicates, $skiptoken values and the row
+ * window. Literals are collected in the order {@link ODataSqlExpressionVisitor}
+ * reaches them, $filter first and then each $orderby item, followed by the options
+ * nested in $expand items in depth-first order, the expressions of $apply, the
+ * $search terms from left to right and the $compute expressions. Collecting them also
+ * yields the normalized query shape, with literals replaced by their types, that
+ * keys the query plan cache.
+ */
+public final class QueryArguments {
+
+    private final List<Object> literals = new ArrayList<>();
+    private final List<Integer> orderByOffsets = new ArrayList<>();
+    private final Map<ExpandItem, ExpandOffsets> expandOffsets = new IdentityHashMap<>();
+    private final Map<Expression, Integer> applyOffsets = new IdentityHashMap<>();
+    private int searchOffset;
+    private final Map<String, Expression> computed = new LinkedHashMap<>();
+    private final Map<Expression, Integer> computeOffsets = new IdentityHashMap<>();
+    private List<UriParameter> keyPredicates;
+    private final List<List<UriParameter>> pathKeyPredicates = new ArrayList<>();
+    private List<Object> skipTokenValues;
+    private Integer top;
+    private Integer skip;
+    private Integer pageSize;
+    private boolean serverPaged;
+    private String shape;
+
+    private QueryArguments() {
+    }
+
+    public static QueryArguments collect(
+            EdmEntitySet entitySet, List<UriParameter> keyPredicates, UriInfo uriInfo, Integer pageSize)
+            throws ODataApplicationException {
+        QueryArguments arguments = new QueryArguments();
+        StringBuilder shape = new StringBuilder(entitySet.getName());
+        ShapeVisitor visitor = new ShapeVisitor(arguments.literals);
+
+        arguments.keyPredicates = keyPredicates;
+        if (keyPredicates != null) {
+            shape.append("|key:");
+            for (UriParameter keyPredicate : keyPredicates) {
+                shape.append(keyPredicate.getName()).append(',');
+            }
+        }
+        List<UriResource> path = navigationPath(uriInfo.getUriResourceParts());
+        if (path.size() > 1) {
+            // Segments before the addressed one restrict it through their key predicates
+            shape.append("|path:");
+            for (int i = 0; i < path.size() - 1; i++) {
+                List<UriParameter> segmentKeys = keyPredicatesOf(path.get(i));
+                arguments.pathKeyPredicates.add(segmentKeys);
+                shape.append(path.get(i).getSegmentValue()).append('(');
+                for (UriParameter keyPredicate : segmentKeys) {
+                    shape.append(keyPredicate.getName()).append(',');
+                }
+                shape.append(")/");
+            }
+            shape.append(path.getLast().getSegmentValue());
+        }
+        if (uriInfo.getSelectOption() != null) {
+            shape.append("|select:").append(uriInfo.getSelectOption().getText());
+        }
+        if (uriInfo.getFilterOption() != null && uriInfo.getFilterOption().getExpression() != null) {
+            shape.append("|filter:").append(visitor.shapeOf(uriInfo.getFilterOption().getExpression()));
+        }
+        if (uriInfo.getOrderByOption() != null) {
+            shape.append("|orderby:");
+            for (OrderByItem item : uriInfo.getOrderByOption().getOrders()) {
+                arguments.orderByOffsets.add(arguments.literals.size());
+                shape.append(visitor.shapeOf(item.getExpression()))
+                        .append(item.isDescending() ? " desc," : " asc,");
+            }
+        }
+        if (uriInfo.getExpandOption() != null) {
+            shape.append("|expand:");
+            arguments.collectExpand(uriInfo.getExpandOption(), visitor, shape);
+        }
+        if (uriInfo.getApplyOption() != null) {
+            shape.append("|apply:");
+            arguments.collectApply(uriInfo.getApplyOption(), visitor, shape);
+        }
+        if (uriInfo.getSearchOption() != null && uriInfo.getSearchOption().getSearchExpression() != null) {
+            shape.append("|search:");
+            arguments.searchOffset = arguments.literals.size();
+            arguments.collectSearch(uriInfo.getSearchOption().getSearchExpression(), shape);
+        }
+        if (uriInfo.getComputeOption() != null) {
+            shape.append("|compute:");
+            for (ComputeItem item : uriInfo.getComputeOption().getComputeItems()) {
+                arguments.computed.put(item.getAlias(), item.getExpression());
+                arguments.computeOffsets.put(item.getExpression(), arguments.literals.size());
+                shape.append(visitor.shapeOf(item.getExpression())).append(" as ").append(item.getAlias()).append(',');
+            }
+        }
+
+        arguments.top = uriInfo.getTopOption() != null ? uriInfo.getTopOption().getValue() : null;
+        arguments.skip = uriInfo.getSkipOption() != null ? uriInfo.getSkipOption().getValue() : null;
+        arguments.pageSize = pageSize;
+        arguments.serverPaged = pageSize != null && keyPredicates == null
+                && (arguments.top == null || arguments.top > pageSize);
+        if (uriInfo.getSkipTokenOption() != null) {
+            arguments.skipTokenValues = SkipToken.decode(uriInfo.getSkipTokenOption().getValue()).getValues();
+            // NULL token values change the keyset predicate, so they are part of the shape
+            shape.append("|skiptoken:");
+            for (Object value : arguments.skipTokenValues) {
+                shape.append(value == null ? 'n' : 'v');
+            }
+        }
+        if (arguments.top != null) {
+            shape.append("|top");
+        }
+        if (arguments.getOffset() != null) {
+            shape.append("|skip");
+        }
+        if (arguments.serverPaged) {
+            shape.append("|paged");
+        }
+        arguments.shape = shape.toString();
+        return arguments;
+    }
+
+    public String getShape() {
+        return shape;
+    }
+
+    public Object getLiteral(int index) {
+        return literals.get(index);
+    }
+
+    /**
+     * Index of the first literal of the given $orderby item.
+     */
+    public int getOrderByOffset(int item) {
+        return orderByOffsets.get(item);
+    }
+
+    /**
+     * Where the literals of the options nested in an $expand item of this request start.
+     */
+    ExpandOffsets getExpandOffsets(ExpandItem item) {
+        return expandOffsets.get(item);
+    }
+
+    /**
+     * Index of the first literal of an expression in this request's $apply.
+     */
+    int getApplyOffset(Expression expression) {
+        return applyOffsets.get(expression);
+    }
+
+    /**
+     * Index of the first $search term.
+     */
+    public int getSearchOffset() {
+        return searchOffset;
+    }
+
+    /**
+     * Expression of a $compute alias, or null when the request computes no such property.
+     */
+    Expression getComputedExpression(String alias) {
+        return computed.get(alias);
+    }
+
+    /**
+     * Index of the first literal of a $compute expression.
+     */
+    int getComputeOffset(Expression expression) {
+        return computeOffsets.get(expression);
+    }
+
+    public List<UriParameter> getKeyPredicates() {
+        return keyPredicates;
+    }
+
+    /**
+     * Key predicates of the given segment of the resource path, for the segments
+     * before the addressed entity set.
+     */
+    public List<UriParameter> getPathKeyPredicates(int segment) {
+        return pathKeyPredicates.get(segment);
+    }
+
+    /**
+     * The leading entity set and navigation segments of a resource path, which
+     * together address the entities a request reads.
+     */
+    static List<UriResource> navigationPath(List<UriResource> resourceParts) {
+        List<UriResource> path = new ArrayList<>();
+        for (UriResource part : resourceParts) {
+            if (!(part instanceof UriResourceEntitySet || part instanceof UriResourceNavigation)) {
+                break;
+            }
+            path.add(part);
+        }
+        return path;
+    }
+
+    static List<UriParameter> keyPredicatesOf(UriResource segment) {
+        if (segment instanceof UriResourceEntitySet) {
+            return ((UriResourceEntitySet) segment).getKeyPredicates();
+        }
+        if (segment instanceof UriResourceNavigation) {
+            return ((UriResourceNavigation) segment).getKeyPredicates();
+        }
+        return List.of();
+    }
+
+    /**
+     * Decoded $skiptoken values, or null when the request has no $skiptoken.
+     */
+    public List<Object> getSkipTokenValues() {
+        return skipTokenValues == null ? null : Collections.unmodifiableList(skipTokenValues);
+    }
+
+    public Integer getPageSize() {
+        return pageSize;
+    }
+
+    public boolean isServerPaged() {
+        return serverPaged;
+    }
+
+    /**
+     * Rows to fetch: one more than a server page, to detect whether another page
+     * follows, or $top.
+     */
+    public Integer getLimit() {
+        return serverPaged ? Integer.valueOf(pageSize + 1) : top;
+    }
+
+    /**
+     * Rows to skip, or null when nothing is skipped. A $skiptoken already positions
+     * past the rows $skip covered.
+     */
+    public Integer getOffset() {
+        return skipTokenValues == null && skip != null && skip > 0 ? skip : null;
+    }
+
+    /**
+     * Append the shape of an $expand option, collecting the literals of the nested
+     * $filter, $orderby, $top and $skip of each item.
+     */
+    private void collectExpand(ExpandOption expandOption, ShapeVisitor visitor, StringBuilder shape)
+            throws ODataApplicationException {
+        for (ExpandItem item : expandOption.getExpandItems()) {
+            if (item.isStar()) {
+                shape.append('*');
+            } else if (item.getResourcePath() != null) {
+                for (UriResource segment : item.getResourcePath().getUriResourceParts()) {
+                    shape.append('/').append(segment.getSegmentValue());
+                }
+            }
+            if (item.isRef()) {
+                shape.append("/$ref");
+            }
+            shape.append('(');
+            appendSelectShape(item.getSelectOption(), shape);
+            ExpandOffsets offsets = new ExpandOffsets();
+            offsets.filter = literals.size();
+            if (item.getFilterOption() != null && item.getFilterOption().getExpression() != null) {
+                shape.append(";filter:").append(visitor.shapeOf(item.getFilterOption().getExpression()));
+            }
+            if (item.getOrderByOption() != null) {
+                shape.append(";orderby:");
+                for (OrderByItem order : item.getOrderByOption().getOrders()) {
+                    offsets.orderBy.add(literals.size());
+                    shape.append(visitor.shapeOf(order.getExpression()))
+                            .append(order.isDescending() ? " desc," : " asc,");
+                }
+            }
+            if (item.getTopOption() != null) {
+                offsets.top = literals.size();
+                literals.add(item.getTopOption().getValue());
+                shape.append(";top");
+            }
+            if (item.getSkipOption() != null) {
+                offsets.skip = literals.size();
+                literals.add(item.getSkipOption().getValue());
+                shape.append(";skip");
+            }
+            if (item.getLevelsOption() != null) {
+                offsets.levels = literals.size();
+                literals.add(item.getLevelsOption().isMax() ? -1 : item.getLevelsOption().getValue());
+                shape.append(";levels");
+            }
+            expandOffsets.put(item, offsets);
+            if (item.getExpandOption() != null) {
+                shape.append(";expand:");
+                collectExpand(item.getExpandOption(), visitor, shape);
+            }
+            shape.append("),");
+        }
+    }
+
+    /**
+     * Append the shape of a $apply pipeline, collecting the literals of its filter,
+     * aggregate and top/bottom expressions.
+     */
+    private void collectApply(ApplyOption applyOption, ShapeVisitor visitor, StringBuilder shape)
+            throws ODataApplicationException {
+        for (ApplyItem item : applyOption.getApplyItems()) {
+            shape.append(item.getKind().name()).append('(');
+            switch (item.getKind()) {
+                case FILTER:
+                    collectApplyExpression(((Filter) item).getFilterOption().getExpression(), visitor, shape);
+                    break;
+                case AGGREGATE:
+                    for (AggregateExpression expression : ((Aggregate) item).getExpressions()) {
+                        collectApplyExpression(expression.getExpression(), visitor, shape);
+                        if (expression.getPath() != null) {
+                            for (UriResource segment : expression.getPath()) {
+                                shape.append('/').append(segment.getSegmentValue());
+                            }
+                        }
+                        shape.append(' ').append(expression.getStandardMethod())
+                                .append(' ').append(expression.getAlias()).append(',');
+                    }
+                    break;
+                case GROUP_BY:
+                    GroupBy groupBy = (GroupBy) item;
+                    for (GroupByItem groupByItem : groupBy.getGroupByItems()) {
+                        for (UriResource segment : groupByItem.getPath()) {
+                            shape.append('/').append(segment.getSegmentValue());
+                        }
+                        shape.append(',');
+                    }
+                    if (groupBy.getApplyOption() != null) {
+                        collectApply(groupBy.getApplyOption(), visitor, shape);
+                    }
+                    break;
+                case BOTTOM_TOP:
+                    BottomTop bottomTop = (BottomTop) item;
+                    shape.append(bottomTop.getMethod()).append(',');
+                    collectApplyExpression(bottomTop.getNumber(), visitor, shape);
+                    collectApplyExpression(bottomTop.getValue(), visitor, shape);
+                    break;
+                default:
+                    break;
+            }
+            shape.append(")/");
+        }
+    }
+
+    private void collectApplyExpression(Expression expression, ShapeVisitor visitor, StringBuilder shape)
+            throws ODataApplicationException {
+        if (expression != null) {
+            applyOffsets.put(expression, literals.size());
+            shape.append(visitor.shapeOf(expression)).append(',');
+        }
+    }
+
+    private void collectSearch(SearchExpression expression, StringBuilder shape) {
+        if (expression.isSearchTerm()) {
+            literals.add(expression.asSearchTerm().getSearchTerm());
+            shape.append('?');
+        } else if (expression.isSearchUnary()) {
+            shape.append("NOT(");
+            collectSearch(expression.asSearchUnary().getOperand(), shape);
+            shape.append(')');
+        } else if (expression.isSearchBinary()) {
+            SearchBinary binary = expression.asSearchBinary();
+            shape.append('(');
+            collectSearch(binary.getLeftOperand(), shape);
+            shape.append(' ').append(binary.getOperator()).append(' ');
+            collectSearch(binary.getRightOperand(), shape);
+            shape.append(')');
+        }
+    }
+
+    private static void appendSelectShape(SelectOption selectOption, StringBuilder shape) {
+        if (selectOption == null) {
+            return;
+        }
+        shape.append("select:");
+        for (SelectItem item : selectOption.getSelectItems()) {
+            if (item.isStar()) {
+                shape.append('*');
+            } else if (item.getResourcePath() != null) {
+                for (UriResource segment : item.getResourcePath().getUriResourceParts()) {
+                    shape.append('/').append(segment.getSegmentValue());
+                }
+            }
+            shape.append(',');
+        }
+    }
+
+    /**
+     * Literal indexes of the options nested in one $expand item: the first $filter
+     * literal, the first literal of each $orderby item, and the $top and $skip values
+     * (-1 when absent).
+     */
+    static final class ExpandOffsets {
+        int filter;
+        final List<Integer> orderBy = new ArrayList<>();
+        int top = -1;
+        int skip = -1;
+        // $levels, stored as -1 for max
+        int levels = -1;
+    }
+
+    /**
+     * Renders an expression with literals replaced by their types, adding the literal
+     * values to the argument list in visiting order.
+     */
+    private static class ShapeVisitor implements ExpressionVisitor<String> {
+
+        private final List<Object> literals;
+
+        ShapeVisitor(List<Object> literals) {
+            this.literals = literals;
+        }
+
+        String shapeOf(Expression expression) throws ODataApplicationException {
+            try {
+                return expression.accept(this);
+            } catch (ExpressionVisitException e) {
+                throw new ODataApplicationException("Invalid expression: " + e.getMessage(),
+                        HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH, e);
+            }
+        }
+
+        @Override
+        public String visitBinaryOperator(BinaryOperatorKind operator, String left, String right) {
+            return "(" + left + " " + operator.name() + " " + right + ")";
+        }
+
+        @Override
+        public String visitBinaryOperator(BinaryOperatorKind operator, String left, List<String> right) {
+            return "(" + left + " " + operator.name() + " " + right + ")";
+        }
+
+        @Override
+        public String visitUnaryOperator(UnaryOperatorKind operator, String operand) {
+            return operator.name() + "(" + operand + ")";
+        }
+
+        @Override
+        public String visitMethodCall(MethodKind methodCall, List<String> parameters) {
+            return methodCall.name() + parameters;
+        }
+
+        @Override
+        public String visitLambdaExpression(String lambdaFunction, String lambdaVariable, Expression expression)
+                throws ExpressionVisitException, ODataApplicationException {
+            return lambdaFunction + "(" + lambdaVariable + ":" + expression.accept(this) + ")";
+        }
+
+        @Override
+        public String visitLiteral(Literal literal) throws ODataApplicationException {
+            if (literal.getType() == null && "null".equals(literal.getText())) {
+                return "null";
+            }
+            literals.add(ODataSqlExpressionVisitor.convertLiteral(literal));
+            return "?" + (literal.getType() != null ? literal.getType().getName() : "");
+        }
+
+        @Override
+        public String visitMember(Member member) throws ExpressionVisitException, ODataApplicationException {
+            StringBuilder path = new StringBuilder();
+            for (UriResource segment : member.getResourcePath().getUriResourceParts()) {
+                path.append('/').append(segment.getSegmentValue());
+                // Lambda conditions are translated where the member is, so their literals follow here
+                if (segment instanceof UriResourceLambdaAny) {
+                    UriResourceLambdaAny any = (UriResourceLambdaAny) segment;
+                    path.append('(').append(any.getLambdaVariable()).append(':')
+                            .append(any.getExpression() != null ? any.getExpression().accept(this) : "").append(')');
+                } else if (segment instanceof UriResourceLambdaAll) {
+                    UriResourceLambdaAll all = (UriResourceLambdaAll) segment;
+                    path.append('(').append(all.getLambdaVariable()).append(':')
+                            .append(all.getExpression().accept(this)).append(')');
+                }
+            }
+            return path.toString();
+        }
+
+        @Override
+        public String visitAlias(String aliasName) {
+            return "@" + aliasName;
+        }
+
+        @Override
+        public String visitTypeLiteral(EdmType type) {
+            return type.getFullQualifiedName().getFullQualifiedNameAsString();
+        }
+
+        @Override
+        public String visitLambdaReference(String variableName) {
+            return "$" + variableName;
+        }
+
+        @Override
+        public String visitEnum(EdmEnumType type, List<String> enumValues) {
+            if (enumValues != null) {
+                literals.addAll(enumValues);
+            }
+            return type.getFullQualifiedName().getFullQualifiedNameAsString()
+                    + "[" + (enumValues != null ? enumValues.size() : 0) + "]";
+        }
+    }
+}
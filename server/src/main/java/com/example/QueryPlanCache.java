@@ -0,0 +1,69 @@
+package com.example;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Bounded least-recently-used cache of compiled query plans keyed by normalized
+ * query shape. Hit and miss counts are published as Micrometer meters.
+ */
+public class QueryPlanCache<P> implements MeterBinder {
+
+    private final Map<String, P> plans;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public QueryPlanCache(int maxSize) {
+        this.plans = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, P> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public synchronized P get(String shape) {
+        P plan = plans.get(shape);
+        if (plan != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return plan;
+    }
+
+    public synchronized void put(String shape, P plan) {
+        plans.put(shape, plan);
+    }
+
+    public synchronized int size() {
+        return plans.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("odata.plan.cache.hits", hits, AtomicLong::get)
+                .description("Entity set reads served from a cached query plan")
+                .register(registry);
+        FunctionCounter.builder("odata.plan.cache.misses", misses, AtomicLong::get)
+                .description("Entity set reads that had to plan their query")
+                .register(registry);
+        Gauge.builder("odata.plan.cache.size", this, QueryPlanCache::size)
+                .description("Query plans currently cached")
+                .register(registry);
+    }
+}
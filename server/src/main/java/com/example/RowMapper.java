@@ -0,0 +1,163 @@
+package com.example;
+
+import java.net.URI;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.data.ValueType;
+import org.apache.olingo.commons.api.edm.EdmEntityType;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.apache.olingo.commons.api.edm.EdmProperty;
+import org.apache.olingo.commons.api.edm.constants.EdmTypeKind;
+
+/**
+ * Maps result set rows to entities. Column positions and typed getters are
+ * resolved once when the query is planned, so mapping a row reads each column
+ * once by index and never looks up a column by name.
+ */
+final class RowMapper {
+
+    private enum Reader {
+        INT32, INT64, DOUBLE, BOOLEAN, STRING, DATE, TIME, TIMESTAMP, DECIMAL, OBJECT
+    }
+
+    private final String entitySetName;
+    private final String[] names;
+    private final Reader[] readers;
+    private final int firstColumn;
+    private final int keyIndex;
+
+    /**
+     * @param names      property names in select-list order
+     * @param kinds      primitive type of each property
+     * @param keyName    property whose value forms the entity id, or null
+     * @param firstColumn result set index of the first property
+     */
+    RowMapper(String entitySetName, List<String> names, List<EdmPrimitiveTypeKind> kinds, String keyName,
+            int firstColumn) {
+        this.entitySetName = entitySetName;
+        this.names = names.toArray(new String[0]);
+        this.readers = new Reader[names.size()];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = readerFor(kinds.get(i));
+        }
+        this.firstColumn = firstColumn;
+        this.keyIndex = keyName != null ? names.indexOf(keyName) : -1;
+    }
+
+    static RowMapper forProperties(String entitySetName, EdmEntityType entityType, List<EdmProperty> properties,
+            int firstColumn) {
+        return forProperties(entitySetName, entityType, properties, Map.of(), firstColumn);
+    }
+
+    /**
+     * @param computed $compute properties read after {@code properties}, with their types
+     */
+    static RowMapper forProperties(String entitySetName, EdmEntityType entityType, List<EdmProperty> properties,
+            Map<String, EdmPrimitiveTypeKind> computed, int firstColumn) {
+        List<String> names = new ArrayList<>(properties.size() + computed.size());
+        List<EdmPrimitiveTypeKind> kinds = new ArrayList<>(properties.size() + computed.size());
+        for (EdmProperty property : properties) {
+            names.add(property.getName());
+            kinds.add(property.getType().getKind() == EdmTypeKind.PRIMITIVE
+                    ? EdmPrimitiveTypeKind.valueOfFQN(property.getType().getFullQualifiedName())
+                    : null);
+        }
+        names.addAll(computed.keySet());
+        kinds.addAll(computed.values());
+        String keyName = entityType.getKeyPropertyRefs().isEmpty()
+                ? null : entityType.getKeyPropertyRefs().getFirst().getName();
+        return new RowMapper(entitySetName, names, kinds, keyName, firstColumn);
+    }
+
+    private static Reader readerFor(EdmPrimitiveTypeKind kind) {
+        if (kind == null) {
+            return Reader.OBJECT;
+        }
+        switch (kind) {
+            case Int32:
+                return Reader.INT32;
+            case Int64:
+                return Reader.INT64;
+            case Double:
+                return Reader.DOUBLE;
+            case Boolean:
+                return Reader.BOOLEAN;
+            case String:
+                return Reader.STRING;
+            case Date:
+                return Reader.DATE;
+            case TimeOfDay:
+                return Reader.TIME;
+            case DateTimeOffset:
+                return Reader.TIMESTAMP;
+            case Decimal:
+                return Reader.DECIMAL;
+            default:
+                return Reader.OBJECT;
+        }
+    }
+
+    /**
+     * Number of result set columns this mapper reads.
+     */
+    int getColumnCount() {
+        return readers.length;
+    }
+
+    Entity map(ResultSet rs) throws SQLException {
+        Entity entity = new Entity();
+        Object keyValue = null;
+        for (int i = 0; i < readers.length; i++) {
+            Object value = read(rs, firstColumn + i, readers[i]);
+            if (value != null) {
+                entity.addProperty(new Property(null, names[i], ValueType.PRIMITIVE, value));
+            }
+            if (i == keyIndex) {
+                keyValue = value;
+            }
+        }
+        if (keyIndex >= 0) {
+            entity.setId(URI.create(entitySetName + "(" + keyValue + ")"));
+        }
+        return entity;
+    }
+
+    private static Object read(ResultSet rs, int column, Reader reader) throws SQLException {
+        switch (reader) {
+            case INT32: {
+                int value = rs.getInt(column);
+                return rs.wasNull() ? null : value;
+            }
+            case INT64: {
+                long value = rs.getLong(column);
+                return rs.wasNull() ? null : value;
+            }
+            case DOUBLE: {
+                double value = rs.getDouble(column);
+                return rs.wasNull() ? null : value;
+            }
+            case BOOLEAN: {
+                boolean value = rs.getBoolean(column);
+                return rs.wasNull() ? null : value;
+            }
+            case STRING:
+                return rs.getString(column);
+            case DATE:
+                return rs.getDate(column);
+            case TIME:
+                return rs.getTime(column);
+            case TIMESTAMP:
+                return rs.getTimestamp(column);
+            case DECIMAL:
+                return rs.getBigDecimal(column);
+            default:
+                return rs.getObject(column);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Opaque keyset continuation token used for server-driven paging.
+ * The token carries the $orderby and key values of the last row of a page
+ * so the next page can seek past it instead of counting rows with OFFSET.
+ */
+public final class SkipToken {
+
+    private final List<Object> values;
+
+    private SkipToken(List<Object> values) {
+        this.values = values;
+    }
+
+    public static SkipToken of(List<Object> rowValues) {
+        List<Object> values = new ArrayList<>(rowValues.size());
+        for (Object value : rowValues) {
+            if (value == null || value instanceof Number || value instanceof Boolean) {
+                values.add(value);
+            } else {
+                values.add(value.toString());
+            }
+        }
+        return new SkipToken(values);
+    }
+
+    /**
+     * The values in order-column order: numbers and booleans keep their JSON type,
+     * everything else is its string form, and a null entry means the row had a NULL
+     * in that column.
+     */
+    public List<Object> getValues() {
+        return Collections.unmodifiableList(values);
+    }
+
+    public String encode() {
+        JSONArray json = new JSONArray();
+        for (Object value : values) {
+            json.put(value == null ? JSONObject.NULL : value);
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static SkipToken decode(String token) throws ODataApplicationException {
+        try {
+            String json = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            JSONArray array = new JSONArray(json);
+            List<Object> values = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                values.add(array.isNull(i) ? null : array.get(i));
+            }
+            return new SkipToken(values);
+        } catch (IllegalArgumentException | JSONException e) {
+            throw new ODataApplicationException("Invalid $skiptoken",
+                    HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH, e);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.example;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.queryoption.search.SearchBinary;
+import org.apache.olingo.server.api.uri.queryoption.search.SearchBinaryOperatorKind;
+import org.apache.olingo.server.api.uri.queryoption.search.SearchExpression;
+
+/**
+ * SQL syntax differences between the databases the server is deployed against.
+ * The dialect is detected once from the JDBC connection metadata.
+ */
+public enum SqlDialect {
+    POSTGRESQL,
+    H2,
+    STANDARD;
+
+    public static SqlDialect detect(Connection conn) throws SQLException {
+        String productName = conn.getMetaData().getDatabaseProductName();
+        if (productName == null) {
+            return STANDARD;
+        }
+        String product = productName.toLowerCase(Locale.ROOT);
+        if (product.contains("postgres")) {
+            return POSTGRESQL;
+        }
+        if (product.equals("h2")) {
+            return H2;
+        }
+        return STANDARD;
+    }
+
+    /**
+     * Append a row window ($top / $skip) to a SELECT statement. The limits are bound
+     * as parameters so the statement text stays the same for every page; a null
+     * limit or offset is left out.
+     */
+    public <T> void appendLimitOffset(StringBuilder sql, List<T> params, T limit, T offset) {
+        switch (this) {
+            case POSTGRESQL:
+            case H2:
+                if (limit != null) {
+                    sql.append(" LIMIT ?");
+                    params.add(limit);
+                }
+                if (offset != null) {
+                    sql.append(" OFFSET ?");
+                    params.add(offset);
+                }
+                break;
+            default:
+                if (offset != null) {
+                    sql.append(" OFFSET ? ROWS");
+                    params.add(offset);
+                }
+                if (limit != null) {
+                    sql.append(" FETCH NEXT ? ROWS ONLY");
+                    params.add(limit);
+                }
+                break;
+        }
+    }
+
+    /**
+     * An upsert of one row in a single statement: insert it, or update the given
+     * columns when a row with its key exists. Parameters are the key followed by the
+     * columns; columns left out keep their stored value on update.
+     */
+    public String upsert(String table, String keyColumn, List<String> columns) {
+        String allColumns = keyColumn + (columns.isEmpty() ? "" : ", " + String.join(", ", columns));
+        String placeholders = String.join(", ", java.util.Collections.nCopies(columns.size() + 1, "?"));
+        StringBuilder sql = new StringBuilder();
+        switch (this) {
+            case POSTGRESQL:
+                sql.append("INSERT INTO ").append(table).append(" (").append(allColumns).append(") VALUES (")
+                        .append(placeholders).append(") ON CONFLICT (").append(keyColumn).append(") DO ");
+                if (columns.isEmpty()) {
+                    sql.append("NOTHING");
+                } else {
+                    sql.append("UPDATE SET ");
+                    for (int i = 0; i < columns.size(); i++) {
+                        sql.append(i > 0 ? ", " : "").append(columns.get(i)).append(" = EXCLUDED.")
+                                .append(columns.get(i));
+                    }
+                }
+                break;
+            case H2:
+                sql.append("MERGE INTO ").append(table).append(" (").append(allColumns).append(") KEY (")
+                        .append(keyColumn).append(") VALUES (").append(placeholders).append(")");
+                break;
+            default:
+                sql.append("MERGE INTO ").append(table).append(" t USING (VALUES (").append(placeholders)
+                        .append(")) s (").append(allColumns).append(") ON t.").append(keyColumn).append(" = s.")
+                        .append(keyColumn);
+                if (!columns.isEmpty()) {
+                    sql.append(" WHEN MATCHED THEN UPDATE SET ");
+                    for (int i = 0; i < columns.size(); i++) {
+                        sql.append(i > 0 ? ", " : "").append(columns.get(i)).append(" = s.").append(columns.get(i));
+                    }
+                }
+                sql.append(" WHEN NOT MATCHED THEN INSERT (").append(allColumns).append(") VALUES (s.")
+                        .append(allColumns.replace(", ", ", s.")).append(")");
+                break;
+        }
+        return sql.toString();
+    }
+
+    /**
+     * A $search predicate over the given columns. PostgreSQL matches one tsvector of
+     * the concatenated columns against a single tsquery combining the terms, so a GIN
+     * index on the same {@code to_tsvector(config, ...)} expression serves it. Other
+     * databases fall back to a case-insensitive LIKE per term and column.
+     *
+     * @param textSearchConfig PostgreSQL text search configuration, such as 'simple'
+     * @param firstTerm        index in the arguments of the expression's first term
+     */
+    public String searchPredicate(List<String> columns, SearchExpression expression, String textSearchConfig,
+            List<ParameterBinder> params, int firstTerm) throws ODataApplicationException {
+        if (columns.isEmpty()) {
+            throw new ODataApplicationException("The entity set has no searchable properties",
+                    HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+        }
+        int[] nextTerm = { firstTerm };
+        if (this == POSTGRESQL) {
+            if (!textSearchConfig.matches("[A-Za-z_][A-Za-z0-9_.]*")) {
+                throw new IllegalStateException("Invalid text search configuration: " + textSearchConfig);
+            }
+            StringBuilder document = new StringBuilder();
+            for (String column : columns) {
+                document.append(document.isEmpty() ? "" : " || ' ' || ").append("COALESCE(").append(column)
+                        .append(", '')");
+            }
+            return "(to_tsvector('" + textSearchConfig + "', " + document + ") @@ "
+                    + tsquery(expression, textSearchConfig, params, nextTerm) + ")";
+        }
+        return likeSearch(expression, columns, params, nextTerm);
+    }
+
+    private static String tsquery(SearchExpression expression, String config, List<ParameterBinder> params,
+            int[] nextTerm) {
+        if (expression.isSearchUnary()) {
+            return "(!! " + tsquery(expression.asSearchUnary().getOperand(), config, params, nextTerm) + ")";
+        }
+        if (expression.isSearchBinary()) {
+            SearchBinary binary = expression.asSearchBinary();
+            String left = tsquery(binary.getLeftOperand(), config, params, nextTerm);
+            String right = tsquery(binary.getRightOperand(), config, params, nextTerm);
+            return "(" + left + (binary.getOperator() == SearchBinaryOperatorKind.AND ? " && " : " || ") + right + ")";
+        }
+        // Quoted, so a phrase term matches its words in sequence
+        int index = nextTerm[0]++;
+        params.add(args -> "\"" + ((String) args.getLiteral(index)).replace("\"", "") + "\"");
+        return "websearch_to_tsquery('" + config + "', ?)";
+    }
+
+    private static String likeSearch(SearchExpression expression, List<String> columns,
+            List<ParameterBinder> params, int[] nextTerm) {
+        if (expression.isSearchUnary()) {
+            return "(NOT " + likeSearch(expression.asSearchUnary().getOperand(), columns, params, nextTerm) + ")";
+        }
+        if (expression.isSearchBinary()) {
+            SearchBinary binary = expression.asSearchBinary();
+            String left = likeSearch(binary.getLeftOperand(), columns, params, nextTerm);
+            String right = likeSearch(binary.getRightOperand(), columns, params, nextTerm);
+            return "(" + left + (binary.getOperator() == SearchBinaryOperatorKind.AND ? " AND " : " OR ") + right + ")";
+        }
+        int index = nextTerm[0]++;
+        ParameterBinder pattern = args -> "%" + ODataSqlExpressionVisitor.escapeLike(
+                ((String) args.getLiteral(index)).toLowerCase(Locale.ROOT)) + "%";
+        StringBuilder sql = new StringBuilder("(");
+        for (String column : columns) {
+            sql.append(sql.length() > 1 ? " OR " : "").append("COALESCE(LOWER(").append(column)
+                    .append("), '') LIKE ? ESCAPE '\\'");
+            params.add(pattern);
+        }
+        return sql.append(")").toString();
+    }
+}
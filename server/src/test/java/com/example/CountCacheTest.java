@@ -0,0 +1,54 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.apache.olingo.server.api.ODataResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class CountCacheTest {
+
+    @Test
+    void testEntryExpiresAfterTtl() throws Exception {
+        CountCache cache = new CountCache(10, 50);
+        cache.put("Products", new CountCache.Count(42, false));
+
+        CountCache.Count count = cache.get("Products");
+        assertNotNull(count);
+        assertEquals(42, count.value);
+
+        Thread.sleep(100);
+        assertNull(cache.get("Products"));
+    }
+
+    @Test
+    void testLeastRecentlyUsedEntryIsEvicted() {
+        CountCache cache = new CountCache(2, 60_000);
+        cache.put("a", new CountCache.Count(1, false));
+        cache.put("b", new CountCache.Count(2, false));
+        // Reading a makes b the least recently used entry
+        cache.get("a");
+        cache.put("c", new CountCache.Count(3, false));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    void testApproximateCountSetsHeader() {
+        DefaultProcessor processor = new DefaultProcessor();
+
+        ODataResponse response = new ODataResponse();
+        Object count = ReflectionTestUtils.invokeMethod(processor, "applyCount", response,
+                new CountCache.Count(1_500_000, true));
+        assertEquals(1_500_000, count);
+        assertEquals("true", response.getHeader("X-Count-Approximate"));
+
+        response = new ODataResponse();
+        ReflectionTestUtils.invokeMethod(processor, "applyCount", response, new CountCache.Count(7, false));
+        assertNull(response.getHeader("X-Count-Approximate"));
+    }
+}
@@ -0,0 +1,122 @@
+package com.example;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.data.ValueType;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Rows per second mapped by the name-based lookup the processor used before
+ * {@link RowMapper} and by the index-based mapper. Run with {@code ./gradlew :server:benchmark}.
+ */
+@Tag("benchmark")
+public class RowMapperBenchmark {
+
+    private static final int ROWS = 200_000;
+    private static final int ROUNDS = 5;
+
+    private static final List<String> NAMES = List.of("ID", "NAME", "DESCRIPTION", "PRICE", "CATEGORYID");
+    private static final List<EdmPrimitiveTypeKind> KINDS = List.of(EdmPrimitiveTypeKind.Int32,
+            EdmPrimitiveTypeKind.String, EdmPrimitiveTypeKind.String, EdmPrimitiveTypeKind.Double,
+            EdmPrimitiveTypeKind.Int32);
+
+    @Test
+    void compareRowMappers() throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:rowmapper;DB_CLOSE_DELAY=-1", "sa", "")) {
+            createProducts(conn);
+            RowMapper mapper = new RowMapper("Products", NAMES, KINDS, "ID", 1);
+
+            // Warm up both paths before measuring
+            run(conn, null);
+            run(conn, mapper);
+            for (int round = 1; round <= ROUNDS; round++) {
+                double byName = run(conn, null);
+                double byIndex = run(conn, mapper);
+                System.out.printf("round %d: by name %.0f rows/s, by index %.0f rows/s (%.2fx)%n",
+                        round, byName, byIndex, byIndex / byName);
+            }
+        }
+    }
+
+    private void createProducts(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE PRODUCT (ID INT PRIMARY KEY, NAME VARCHAR(255), DESCRIPTION VARCHAR(255),"
+                    + " PRICE DOUBLE, CATEGORYID INT)");
+        }
+        try (PreparedStatement insert = conn.prepareStatement("INSERT INTO PRODUCT VALUES (?, ?, ?, ?, ?)")) {
+            for (int i = 1; i <= ROWS; i++) {
+                insert.setInt(1, i);
+                insert.setString(2, "Product " + i);
+                insert.setString(3, i % 10 == 0 ? null : "Description of product " + i);
+                insert.setDouble(4, i * 1.5);
+                insert.setInt(5, i % 7);
+                insert.addBatch();
+                if (i % 1000 == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+    }
+
+    /**
+     * @return rows mapped per second, by name when {@code mapper} is null
+     */
+    private double run(Connection conn, RowMapper mapper) throws SQLException {
+        long start = System.nanoTime();
+        int rows = 0;
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT ID, NAME, DESCRIPTION, PRICE, CATEGORYID FROM PRODUCT")) {
+            while (rs.next()) {
+                Entity entity = mapper != null ? mapper.map(rs) : mapByName(rs);
+                if (entity.getId() != null) {
+                    rows++;
+                }
+            }
+        }
+        return rows / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * The former per-cell mapping: a name lookup for the null check, a second one for
+     * the typed getter and a switch on the type name.
+     */
+    private Entity mapByName(ResultSet rs) throws SQLException {
+        Entity entity = new Entity();
+        for (int i = 0; i < NAMES.size(); i++) {
+            String columnName = NAMES.get(i);
+            Object value = null;
+            if (rs.getObject(columnName) != null) {
+                switch (KINDS.get(i).name()) {
+                    case "Int32":
+                        value = rs.getInt(columnName);
+                        break;
+                    case "String":
+                        value = rs.getString(columnName);
+                        break;
+                    case "Double":
+                        value = rs.getDouble(columnName);
+                        break;
+                    default:
+                        value = rs.getObject(columnName);
+                        break;
+                }
+            }
+            if (value != null) {
+                entity.addProperty(new Property(null, columnName, ValueType.PRIMITIVE, value));
+            }
+        }
+        entity.setId(java.net.URI.create("Products(" + rs.getObject("ID") + ")"));
+        return entity;
+    }
+}
@@ -9,6 +9,8 @@ import java.net.URI;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.dbunit.Assertion;
 import org.dbunit.database.DatabaseConnection;
@@ -45,6 +47,12 @@ public class ODataIntegrationTest {
     @Autowired
     private TestRestTemplate restTemplate;
 
+    @Autowired
+    private javax.sql.DataSource dataSource;
+
+    @Autowired
+    private com.example.DefaultProcessor processor;
+
     private String BASE_URL;
     private static Connection h2Connection;
     private static IDatabaseConnection dbUnitConnection;
@@ -70,6 +78,10 @@ public class ODataIntegrationTest {
         try (Statement stmt = h2Connection.createStatement()) {
             stmt.execute("CREATE TABLE IF NOT EXISTS CATEGORY (Id INT PRIMARY KEY, Name VARCHAR(255))");
             stmt.execute("CREATE TABLE IF NOT EXISTS PRODUCT (Id INT PRIMARY KEY, Name VARCHAR(255), Description VARCHAR(255), Price DOUBLE, CategoryID INT, FOREIGN KEY (CategoryID) REFERENCES CATEGORY(Id))");
+            stmt.execute("CREATE TABLE IF NOT EXISTS ORGUNIT (Id INT PRIMARY KEY, Name VARCHAR(255), ParentID INT, FOREIGN KEY (ParentID) REFERENCES ORGUNIT(Id))");
+            stmt.execute("CREATE TABLE IF NOT EXISTS TAG (Code VARCHAR(20) PRIMARY KEY, Name VARCHAR(255))");
+            stmt.execute("CREATE TABLE IF NOT EXISTS NOTE (Id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, Title VARCHAR(255), Status VARCHAR(20) DEFAULT 'open')");
+            stmt.execute("CREATE TABLE IF NOT EXISTS LABEL (Id INT PRIMARY KEY, Name VARCHAR(255) NOT NULL, Color VARCHAR(20))");
         }
     }
 
@@ -86,7 +98,8 @@ public class ODataIntegrationTest {
         BASE_URL = "http://localhost:" + port + "/odata/";
         // Clean and insert data using DBUnit
         InputStream is = getClass().getClassLoader().getResourceAsStream("dataset.xml");
-        IDataSet dataSet = new FlatXmlDataSetBuilder().build(is);
+        // Column sensing lets the root ORGUNIT row leave ParentID unset
+        IDataSet dataSet = new FlatXmlDataSetBuilder().setColumnSensing(true).build(is);
         DatabaseOperation.CLEAN_INSERT.execute(dbUnitConnection, dataSet);
     }
 
@@ -237,7 +250,7 @@ public class ODataIntegrationTest {
 
     @Test
     void testReadEntityCollectionWithExpand() throws Exception {
-        URI uri = new URI(BASE_URL + "Products?$expand=Category");
+        URI uri = new URI(BASE_URL + "Products?$expand=Category&$orderby=ID");
         ResponseEntity<String> response = restTemplate.getForEntity(uri, String.class);
 
         System.out.println("testReadEntityCollectionWithExpand: Status=" + response.getStatusCode());
@@ -245,8 +258,9 @@ public class ODataIntegrationTest {
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
         assertTrue(response.getBody().contains("Products"));
-        // The server's TestProcessor does not currently support $expand, so we only check for a successful response.
-        // In a full implementation, you would add assertions here to verify the expanded data.
+        org.json.JSONArray products = new org.json.JSONObject(response.getBody()).getJSONArray("value");
+        assertEquals("Electronics", products.getJSONObject(0).getJSONObject("Category").getString("NAME"));
+        assertEquals("Peripherals", products.getJSONObject(3).getJSONObject("Category").getString("NAME"));
     }
 
     @Test
@@ -264,4 +278,976 @@ public class ODataIntegrationTest {
         assertTrue(root.has("@odata.count"));
         assertTrue(root.getInt("@odata.count") >= 0); // Check if count is a non-negative number
     }
+
+    @Test
+    void testTopAndSkip() throws Exception {
+        URI uri = new URI(BASE_URL + "Products?$orderby=PRICE%20desc&$top=3&$skip=1");
+        ResponseEntity<String> response = restTemplate.getForEntity(uri, String.class);
+
+        System.out.println("testTopAndSkip: Status=" + response.getStatusCode());
+        System.out.println("testTopAndSkip: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+
+        org.json.JSONObject root = new org.json.JSONObject(response.getBody());
+        org.json.JSONArray productsJson = root.getJSONArray("value");
+        assertEquals(3, productsJson.length());
+        assertEquals("Smartphone", productsJson.getJSONObject(0).getString("NAME"));
+        assertEquals("Monitor", productsJson.getJSONObject(2).getString("NAME"));
+    }
+
+    @Test
+    void testServerDrivenPaging() throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Prefer", "odata.maxpagesize=4");
+        ResponseEntity<String> response = restTemplate.exchange(
+            new URI(BASE_URL + "Products?$orderby=PRICE%20desc"), HttpMethod.GET, new HttpEntity<>(headers), String.class);
+
+        System.out.println("testServerDrivenPaging: Status=" + response.getStatusCode());
+        System.out.println("testServerDrivenPaging: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("odata.maxpagesize=4", response.getHeaders().getFirst("Preference-Applied"));
+
+        org.json.JSONObject root = new org.json.JSONObject(response.getBody());
+        assertEquals(4, root.getJSONArray("value").length());
+        assertTrue(root.has("@odata.nextLink"));
+
+        ResponseEntity<String> nextResponse = restTemplate.exchange(
+            new URI(root.getString("@odata.nextLink")), HttpMethod.GET, new HttpEntity<>(headers), String.class);
+        assertEquals(HttpStatus.OK, nextResponse.getStatusCode());
+
+        org.json.JSONArray nextPage = new org.json.JSONObject(nextResponse.getBody()).getJSONArray("value");
+        assertEquals(4, nextPage.length());
+        assertEquals("Printer", nextPage.getJSONObject(0).getString("NAME"));
+    }
+
+    @Test
+    void testCountWithPaging() throws Exception {
+        URI uri = new URI(BASE_URL + "Products?$count=true&$top=2");
+        ResponseEntity<String> response = restTemplate.getForEntity(uri, String.class);
+
+        System.out.println("testCountWithPaging: Status=" + response.getStatusCode());
+        System.out.println("testCountWithPaging: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        org.json.JSONObject root = new org.json.JSONObject(response.getBody());
+        assertEquals(2, root.getJSONArray("value").length());
+        assertEquals(dbUnitConnection.createDataSet().getTable("PRODUCT").getRowCount(), root.getInt("@odata.count"));
+    }
+
+    @Test
+    void testCountPath() throws Exception {
+        URI uri = new URI(BASE_URL + "Products/$count?$filter=PRICE%20gt%20500");
+        ResponseEntity<String> response = restTemplate.getForEntity(uri, String.class);
+
+        System.out.println("testCountPath: Status=" + response.getStatusCode());
+        System.out.println("testCountPath: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("2", response.getBody().trim());
+    }
+
+    @Test
+    void testSelectProjection() throws Exception {
+        URI uri = new URI(BASE_URL + "Products?$select=NAME,PRICE");
+        ResponseEntity<String> response = restTemplate.getForEntity(uri, String.class);
+
+        System.out.println("testSelectProjection: Status=" + response.getStatusCode());
+        System.out.println("testSelectProjection: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        org.json.JSONObject product = new org.json.JSONObject(response.getBody()).getJSONArray("value").getJSONObject(0);
+        assertTrue(product.has("NAME"));
+        assertTrue(product.has("PRICE"));
+        assertTrue(!product.has("DESCRIPTION"));
+    }
+
+    @Test
+    void testCompoundFilter() throws Exception {
+        URI uri = new URI(BASE_URL + "Products?$filter=contains(NAME,'o')%20and%20(PRICE%20ge%20100%20or%20CATEGORYID%20eq%202)");
+        ResponseEntity<String> response = restTemplate.getForEntity(uri, String.class);
+
+        System.out.println("testCompoundFilter: Status=" + response.getStatusCode());
+        System.out.println("testCompoundFilter: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+
+        org.json.JSONArray productsJson = new org.json.JSONObject(response.getBody()).getJSONArray("value");
+        ITable dbProductsTable = dbUnitConnection.createDataSet().getTable("PRODUCT");
+        DefaultTable apiProductsTable = DbUnitTestUtils.buildTableFromJson(productsJson, dbProductsTable);
+        DefaultTable dbFilteredTable = DbUnitTestUtils.filterDbTable(
+            dbProductsTable,
+            row -> row[1].toString().contains("o")
+                && (((Double) row[3]) >= 100 || Integer.parseInt(row[4].toString()) == 2),
+            null
+        );
+
+        Assertion.assertEquals(dbFilteredTable, apiProductsTable);
+    }
+
+    @Test
+    void testMultiKeyOrderBy() throws Exception {
+        URI uri = new URI(BASE_URL + "Products?$orderby=CATEGORYID%20asc,PRICE%20desc");
+        ResponseEntity<String> response = restTemplate.getForEntity(uri, String.class);
+
+        System.out.println("testMultiKeyOrderBy: Status=" + response.getStatusCode());
+        System.out.println("testMultiKeyOrderBy: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        org.json.JSONArray productsJson = new org.json.JSONObject(response.getBody()).getJSONArray("value");
+        assertEquals(10, productsJson.length());
+        for (int i = 1; i < productsJson.length(); i++) {
+            org.json.JSONObject previous = productsJson.getJSONObject(i - 1);
+            org.json.JSONObject current = productsJson.getJSONObject(i);
+            int categoryOrder = Integer.compare(previous.getInt("CATEGORYID"), current.getInt("CATEGORYID"));
+            assertTrue(categoryOrder < 0
+                || (categoryOrder == 0 && previous.getDouble("PRICE") >= current.getDouble("PRICE")));
+        }
+
+        // The same ordering paged with keyset tokens returns the same sequence
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Prefer", "odata.maxpagesize=3");
+        List<Object> pagedIds = new ArrayList<>();
+        String next = uri.toString();
+        while (next != null) {
+            ResponseEntity<String> page = restTemplate.exchange(
+                new URI(next), HttpMethod.GET, new HttpEntity<>(headers), String.class);
+            assertEquals(HttpStatus.OK, page.getStatusCode());
+            org.json.JSONObject pageJson = new org.json.JSONObject(page.getBody());
+            org.json.JSONArray values = pageJson.getJSONArray("value");
+            for (int i = 0; i < values.length(); i++) {
+                pagedIds.add(values.getJSONObject(i).get("ID"));
+            }
+            next = pageJson.optString("@odata.nextLink", null);
+        }
+        List<Object> ids = new ArrayList<>();
+        for (int i = 0; i < productsJson.length(); i++) {
+            ids.add(productsJson.getJSONObject(i).get("ID"));
+        }
+        assertEquals(ids, pagedIds);
+    }
+
+    @Test
+    void testMetadataStringMaxLength() throws Exception {
+        URI uri = new URI(BASE_URL + "$metadata");
+        ResponseEntity<String> response = restTemplate.getForEntity(uri, String.class);
+
+        System.out.println("testMetadataStringMaxLength: Status=" + response.getStatusCode());
+        System.out.println("testMetadataStringMaxLength: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertTrue(response.getBody().contains("Name=\"NAME\" Type=\"Edm.String\" MaxLength=\"255\""));
+    }
+
+    @Test
+    void testCachedPlanRebindsLiterals() throws Exception {
+        // Same query shape, different literals: the second request reuses the plan
+        ResponseEntity<String> first = restTemplate.getForEntity(
+            new URI(BASE_URL + "Products?$filter=PRICE%20gt%20500&$orderby=PRICE%20desc"), String.class);
+        ResponseEntity<String> second = restTemplate.getForEntity(
+            new URI(BASE_URL + "Products?$filter=PRICE%20gt%20250&$orderby=PRICE%20desc"), String.class);
+
+        System.out.println("testCachedPlanRebindsLiterals: First=" + first.getBody());
+        System.out.println("testCachedPlanRebindsLiterals: Second=" + second.getBody());
+
+        assertEquals(HttpStatus.OK, first.getStatusCode());
+        assertEquals(HttpStatus.OK, second.getStatusCode());
+        assertEquals(2, new org.json.JSONObject(first.getBody()).getJSONArray("value").length());
+        org.json.JSONArray secondValues = new org.json.JSONObject(second.getBody()).getJSONArray("value");
+        assertEquals(4, secondValues.length());
+        assertEquals(300.0, secondValues.getJSONObject(3).getDouble("PRICE"));
+    }
+
+    @Test
+    void testExpandReverseNavigation() throws Exception {
+        URI uri = new URI(BASE_URL + "Categories?$expand=Products&$orderby=ID");
+        ResponseEntity<String> response = restTemplate.getForEntity(uri, String.class);
+
+        System.out.println("testExpandReverseNavigation: Status=" + response.getStatusCode());
+        System.out.println("testExpandReverseNavigation: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        org.json.JSONArray categories = new org.json.JSONObject(response.getBody()).getJSONArray("value");
+        org.json.JSONArray electronics = categories.getJSONObject(0).getJSONArray("Products");
+        assertEquals("Notebook", electronics.getJSONObject(0).getString("NAME"));
+        for (int i = 0; i < electronics.length(); i++) {
+            assertEquals(1, electronics.getJSONObject(i).getInt("CATEGORYID"));
+        }
+    }
+
+    @Test
+    void testExpandWithNestedOptions() throws Exception {
+        URI uri = new URI(BASE_URL + "Categories?$orderby=ID&$expand=Products($select=NAME,PRICE;"
+                + "$filter=PRICE%20gt%20100;$orderby=PRICE%20desc;$top=2)");
+        ResponseEntity<String> response = restTemplate.getForEntity(uri, String.class);
+
+        System.out.println("testExpandWithNestedOptions: Status=" + response.getStatusCode());
+        System.out.println("testExpandWithNestedOptions: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        org.json.JSONArray categories = new org.json.JSONObject(response.getBody()).getJSONArray("value");
+        org.json.JSONArray electronics = categories.getJSONObject(0).getJSONArray("Products");
+        assertEquals(2, electronics.length());
+        assertEquals("Notebook", electronics.getJSONObject(0).getString("NAME"));
+        assertEquals("Smartphone", electronics.getJSONObject(1).getString("NAME"));
+        assertTrue(!electronics.getJSONObject(0).has("DESCRIPTION"));
+        org.json.JSONArray peripherals = categories.getJSONObject(1).getJSONArray("Products");
+        assertEquals(2, peripherals.length());
+        assertEquals("Monitor", peripherals.getJSONObject(0).getString("NAME"));
+        assertEquals("Printer", peripherals.getJSONObject(1).getString("NAME"));
+    }
+
+    @Test
+    void testReadNavigationPaths() throws Exception {
+        ResponseEntity<String> response = restTemplate.getForEntity(new URI(BASE_URL + "Products(4)/Category"),
+                String.class);
+
+        System.out.println("testReadNavigationPaths: Status=" + response.getStatusCode());
+        System.out.println("testReadNavigationPaths: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("Peripherals", new org.json.JSONObject(response.getBody()).getString("NAME"));
+
+        response = restTemplate.getForEntity(new URI(BASE_URL + "Products(1)/Category/Products?$orderby=ID"),
+                String.class);
+        System.out.println("testReadNavigationPaths: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        org.json.JSONArray products = new org.json.JSONObject(response.getBody()).getJSONArray("value");
+        assertEquals(5, products.length());
+        for (int i = 0; i < products.length(); i++) {
+            assertEquals(1, products.getJSONObject(i).getInt("CATEGORYID"));
+        }
+
+        response = restTemplate.getForEntity(new URI(BASE_URL + "Categories(2)/Products/$count"), String.class);
+        System.out.println("testReadNavigationPaths: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("5", response.getBody());
+    }
+
+    @Test
+    void testFilterOnNavigationPaths() throws Exception {
+        URI uri = new URI(BASE_URL + "Products?$filter=Category/NAME%20eq%20'Peripherals'&$orderby=ID");
+        ResponseEntity<String> response = restTemplate.getForEntity(uri, String.class);
+
+        System.out.println("testFilterOnNavigationPaths: Status=" + response.getStatusCode());
+        System.out.println("testFilterOnNavigationPaths: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        org.json.JSONArray products = new org.json.JSONObject(response.getBody()).getJSONArray("value");
+        assertEquals(5, products.length());
+        assertEquals("Monitor", products.getJSONObject(0).getString("NAME"));
+
+        uri = new URI(BASE_URL + "Categories?$filter=Products/any(p:p/PRICE%20gt%201000)");
+        response = restTemplate.getForEntity(uri, String.class);
+        System.out.println("testFilterOnNavigationPaths: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        org.json.JSONArray categories = new org.json.JSONObject(response.getBody()).getJSONArray("value");
+        assertEquals(1, categories.length());
+        assertEquals("Electronics", categories.getJSONObject(0).getString("NAME"));
+
+        uri = new URI(BASE_URL + "Categories?$filter=Products/all(p:p/PRICE%20lt%201000)");
+        response = restTemplate.getForEntity(uri, String.class);
+        System.out.println("testFilterOnNavigationPaths: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        categories = new org.json.JSONObject(response.getBody()).getJSONArray("value");
+        assertEquals(1, categories.length());
+        assertEquals("Peripherals", categories.getJSONObject(0).getString("NAME"));
+    }
+
+    @Test
+    void testApplyGroupByAggregate() throws Exception {
+        URI uri = new URI(BASE_URL
+                + "Products?$apply=groupby((CATEGORYID),aggregate(PRICE%20with%20sum%20as%20Total))&$orderby=CATEGORYID");
+        ResponseEntity<String> response = restTemplate.getForEntity(uri, String.class);
+
+        System.out.println("testApplyGroupByAggregate: Status=" + response.getStatusCode());
+        System.out.println("testApplyGroupByAggregate: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        org.json.JSONArray groups = new org.json.JSONObject(response.getBody()).getJSONArray("value");
+        assertEquals(2, groups.length());
+        assertEquals(1, groups.getJSONObject(0).getInt("CATEGORYID"));
+        assertEquals(2650.0, groups.getJSONObject(0).getDouble("Total"), 0.001);
+        assertEquals(760.0, groups.getJSONObject(1).getDouble("Total"), 0.001);
+
+        uri = new URI(BASE_URL + "Products?$apply=filter(PRICE%20gt%20100)/aggregate($count%20as%20N)");
+        response = restTemplate.getForEntity(uri, String.class);
+        System.out.println("testApplyGroupByAggregate: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(5, new org.json.JSONObject(response.getBody()).getJSONArray("value").getJSONObject(0).getInt("N"));
+    }
+
+    @Test
+    void testSearch() throws Exception {
+        URI uri = new URI(BASE_URL + "Products?$search=computer&$orderby=ID");
+        ResponseEntity<String> response = restTemplate.getForEntity(uri, String.class);
+
+        System.out.println("testSearch: Status=" + response.getStatusCode());
+        System.out.println("testSearch: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        org.json.JSONArray products = new org.json.JSONObject(response.getBody()).getJSONArray("value");
+        assertEquals(2, products.length());
+        assertEquals("Notebook", products.getJSONObject(0).getString("NAME"));
+        assertEquals("Monitor", products.getJSONObject(1).getString("NAME"));
+
+        uri = new URI(BASE_URL + "Products?$search=device%20AND%20NOT%20tablet");
+        response = restTemplate.getForEntity(uri, String.class);
+        System.out.println("testSearch: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        products = new org.json.JSONObject(response.getBody()).getJSONArray("value");
+        assertEquals(1, products.length());
+        assertEquals("Smartphone", products.getJSONObject(0).getString("NAME"));
+
+        uri = new URI(BASE_URL + "Products/$count?$search=mouse%20OR%20keyboard");
+        response = restTemplate.getForEntity(uri, String.class);
+        System.out.println("testSearch: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("2", response.getBody());
+    }
+
+    @Test
+    void testCompute() throws Exception {
+        URI uri = new URI(BASE_URL + "Products?$compute=PRICE%20mul%202%20as%20DoublePrice"
+                + "&$select=NAME,DoublePrice&$filter=DoublePrice%20gt%201000&$orderby=DoublePrice%20desc");
+        ResponseEntity<String> response = restTemplate.getForEntity(uri, String.class);
+
+        System.out.println("testCompute: Status=" + response.getStatusCode());
+        System.out.println("testCompute: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        org.json.JSONArray products = new org.json.JSONObject(response.getBody()).getJSONArray("value");
+        assertEquals(2, products.length());
+        assertEquals("Notebook", products.getJSONObject(0).getString("NAME"));
+        assertEquals(2400.0, products.getJSONObject(0).getDouble("DoublePrice"), 0.001);
+        assertEquals("Smartphone", products.getJSONObject(1).getString("NAME"));
+        assertEquals(1600.0, products.getJSONObject(1).getDouble("DoublePrice"), 0.001);
+    }
+
+    @Test
+    void testComputeTemporalTypes() throws Exception {
+        URI uri = new URI(BASE_URL + "Products(1)?$compute=now()%20as%20Stamp,date(now())%20as%20Today,"
+                + "time(now())%20as%20Clock&$select=NAME,Stamp,Today,Clock");
+        ResponseEntity<String> response = restTemplate.getForEntity(uri, String.class);
+
+        System.out.println("testComputeTemporalTypes: Status=" + response.getStatusCode());
+        System.out.println("testComputeTemporalTypes: Body=" + response.getBody());
+
+        // Written as ISO-8601 DateTimeOffset, Date and TimeOfDay values, not as Java strings
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        org.json.JSONObject product = new org.json.JSONObject(response.getBody());
+        assertTrue(product.getString("Stamp").matches("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}.*(Z|[+-]\\d{2}:\\d{2})"),
+                product.getString("Stamp"));
+        assertTrue(product.getString("Today").matches("\\d{4}-\\d{2}-\\d{2}"), product.getString("Today"));
+        assertTrue(product.getString("Clock").matches("\\d{2}:\\d{2}:\\d{2}.*"), product.getString("Clock"));
+    }
+
+    @Test
+    void testExpandHierarchyLevels() throws Exception {
+        URI uri = new URI(BASE_URL + "Orgunits(1)?$expand=Children($levels=max)");
+        ResponseEntity<String> response = restTemplate.getForEntity(uri, String.class);
+
+        System.out.println("testExpandHierarchyLevels: Status=" + response.getStatusCode());
+        System.out.println("testExpandHierarchyLevels: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        org.json.JSONArray children = new org.json.JSONObject(response.getBody()).getJSONArray("Children");
+        assertEquals(2, children.length());
+        assertEquals("Sales", children.getJSONObject(0).getString("NAME"));
+        org.json.JSONObject engineering = children.getJSONObject(1);
+        assertEquals("Engineering", engineering.getString("NAME"));
+        org.json.JSONArray teams = engineering.getJSONArray("Children");
+        assertEquals(2, teams.length());
+        assertEquals("Platform", teams.getJSONObject(0).getJSONArray("Children").getJSONObject(0).getString("NAME"));
+
+        uri = new URI(BASE_URL + "Orgunits(6)?$expand=Parent($levels=2)");
+        response = restTemplate.getForEntity(uri, String.class);
+        System.out.println("testExpandHierarchyLevels: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        org.json.JSONObject parent = new org.json.JSONObject(response.getBody()).getJSONObject("Parent");
+        assertEquals("Backend", parent.getString("NAME"));
+        assertEquals("Engineering", parent.getJSONObject("Parent").getString("NAME"));
+        assertTrue(!parent.getJSONObject("Parent").has("Parent"));
+    }
+
+    @Test
+    void testBatchChangeSet() throws Exception {
+        String body = String.join("\r\n",
+                "--batch_1",
+                "Content-Type: multipart/mixed; boundary=changeset_1",
+                "",
+                "--changeset_1",
+                "Content-Type: application/http",
+                "Content-Transfer-Encoding: binary",
+                "Content-ID: 1",
+                "",
+                "POST Products HTTP/1.1",
+                "Content-Type: application/json",
+                "",
+                "{\"ID\":11,\"NAME\":\"Camera\",\"DESCRIPTION\":\"Digital camera\",\"PRICE\":400.00}",
+                "--changeset_1",
+                "Content-Type: application/http",
+                "Content-Transfer-Encoding: binary",
+                "Content-ID: 2",
+                "",
+                "POST Products HTTP/1.1",
+                "Content-Type: application/json",
+                "",
+                "{\"ID\":12,\"NAME\":\"Tripod\",\"DESCRIPTION\":\"Camera tripod\",\"PRICE\":40.00}",
+                "--changeset_1--",
+                "",
+                "--batch_1",
+                "Content-Type: application/http",
+                "Content-Transfer-Encoding: binary",
+                "",
+                "GET Products/$count HTTP/1.1",
+                "",
+                "",
+                "--batch_1",
+                "Content-Type: application/http",
+                "Content-Transfer-Encoding: binary",
+                "",
+                "GET Products(12) HTTP/1.1",
+                "Accept: application/json",
+                "",
+                "",
+                "--batch_1--",
+                "");
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_TYPE, "multipart/mixed;boundary=batch_1");
+        ResponseEntity<String> response = restTemplate.exchange(BASE_URL + "$batch", HttpMethod.POST,
+                new HttpEntity<>(body, headers), String.class);
+
+        System.out.println("testBatchChangeSet: Status=" + response.getStatusCode());
+        System.out.println("testBatchChangeSet: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(2, response.getBody().split("HTTP/1.1 201", -1).length - 1);
+        assertTrue(response.getBody().contains("\r\n12"));
+        assertTrue(response.getBody().contains("Tripod"));
+        assertEquals(12, dbUnitConnection.createDataSet().getTable("PRODUCT").getRowCount());
+    }
+
+    @Test
+    void testBulkCreateEntities() throws Exception {
+        String json = "[{\"ID\":13,\"NAME\":\"Lens\",\"DESCRIPTION\":\"Zoom lens\",\"PRICE\":250.00},"
+                + "{\"ID\":1,\"NAME\":\"Duplicate\",\"DESCRIPTION\":\"Existing key\",\"PRICE\":1.00},"
+                + "{\"ID\":14,\"NAME\":\"Flash\",\"DESCRIPTION\":null,\"PRICE\":80.00}]";
+        ResponseEntity<String> response = executeJsonRequest(BASE_URL + "Products", HttpMethod.POST, json);
+
+        System.out.println("testBulkCreateEntities: Status=" + response.getStatusCode());
+        System.out.println("testBulkCreateEntities: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        org.json.JSONObject result = new org.json.JSONObject(response.getBody());
+        assertEquals(2, result.getInt("inserted"));
+        assertEquals(1, result.getInt("failed"));
+        assertEquals(1, result.getJSONArray("errors").getJSONObject(0).getInt("index"));
+        assertEquals(12, dbUnitConnection.createDataSet().getTable("PRODUCT").getRowCount());
+    }
+
+    @Test
+    void testDeepInsert() throws Exception {
+        String json = "{\"ID\":3,\"NAME\":\"Photography\",\"Products\":["
+                + "{\"ID\":13,\"NAME\":\"Lens\",\"DESCRIPTION\":\"Zoom lens\",\"PRICE\":250.00},"
+                + "{\"ID\":14,\"NAME\":\"Flash\",\"DESCRIPTION\":\"Speedlight\",\"PRICE\":80.00}]}";
+        ResponseEntity<String> response = executeJsonRequest(BASE_URL + "Categories", HttpMethod.POST, json);
+
+        System.out.println("testDeepInsert: Status=" + response.getStatusCode());
+        System.out.println("testDeepInsert: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.CREATED, response.getStatusCode());
+        assertTrue(response.getBody().contains("Photography"));
+
+        ResponseEntity<String> countResponse = restTemplate.getForEntity(
+                new URI(BASE_URL + "Categories(3)/Products/$count"), String.class);
+        assertEquals("2", countResponse.getBody());
+
+        // A nested single-valued entity is inserted first and referenced by the new row
+        json = "{\"ID\":15,\"NAME\":\"Tripod\",\"DESCRIPTION\":\"Camera tripod\",\"PRICE\":40.00,"
+                + "\"Category\":{\"ID\":4,\"NAME\":\"Accessories\"}}";
+        response = executeJsonRequest(BASE_URL + "Products", HttpMethod.POST, json);
+        assertEquals(HttpStatus.CREATED, response.getStatusCode());
+        assertEquals(4, new org.json.JSONObject(response.getBody()).getInt("CATEGORYID"));
+
+        // A failing related row rolls back the whole deep insert
+        json = "{\"ID\":5,\"NAME\":\"Audio\",\"Products\":[{\"ID\":1,\"NAME\":\"Duplicate\"}]}";
+        response = executeJsonRequest(BASE_URL + "Categories", HttpMethod.POST, json);
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
+        assertEquals(4, dbUnitConnection.createDataSet().getTable("CATEGORY").getRowCount());
+    }
+
+    @Test
+    void testCreateEntityReturnMinimal() throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("Prefer", "return=minimal");
+        String json = "{\"ID\":16,\"NAME\":\"Strap\",\"DESCRIPTION\":\"Camera strap\",\"PRICE\":15.00}";
+        ResponseEntity<String> response = restTemplate.exchange(BASE_URL + "Products", HttpMethod.POST,
+                new HttpEntity<>(json, headers), String.class);
+
+        System.out.println("testCreateEntityReturnMinimal: Status=" + response.getStatusCode());
+        System.out.println("testCreateEntityReturnMinimal: Headers=" + response.getHeaders());
+
+        assertEquals(HttpStatus.NO_CONTENT, response.getStatusCode());
+        assertTrue(response.getHeaders().getFirst("OData-EntityId").endsWith("Products(16)"));
+        assertEquals("return=minimal", response.getHeaders().getFirst("Preference-Applied"));
+        assertEquals(11, dbUnitConnection.createDataSet().getTable("PRODUCT").getRowCount());
+    }
+
+    @Test
+    void testPatchAndUpsertEntity() throws Exception {
+        // The client's HTTP connection has no PATCH, so tunnel it through POST
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("X-HTTP-Method", "PATCH");
+        ResponseEntity<String> response = restTemplate.exchange(BASE_URL + "Products(2)", HttpMethod.POST,
+                new HttpEntity<>("{\"DESCRIPTION\":null,\"PRICE\":450.00}", headers), String.class);
+
+        System.out.println("testPatchAndUpsertEntity: PATCH Status=" + response.getStatusCode());
+
+        assertEquals(HttpStatus.NO_CONTENT, response.getStatusCode());
+        org.json.JSONObject tablet = new org.json.JSONObject(
+                restTemplate.getForEntity(new URI(BASE_URL + "Products(2)"), String.class).getBody());
+        assertEquals("Tablet", tablet.getString("NAME"));
+        assertEquals(1, tablet.getInt("CATEGORYID"));
+        assertEquals(450.0, tablet.getDouble("PRICE"), 0.001);
+        assertTrue(tablet.isNull("DESCRIPTION") || !tablet.has("DESCRIPTION"));
+
+        // PUT to a key without a row inserts it
+        response = executeJsonRequest(BASE_URL + "Products(20)", HttpMethod.PUT,
+                "{\"NAME\":\"Monopod\",\"PRICE\":30.00}");
+        assertEquals(HttpStatus.NO_CONTENT, response.getStatusCode());
+        assertEquals(11, dbUnitConnection.createDataSet().getTable("PRODUCT").getRowCount());
+        assertTrue(restTemplate.getForEntity(new URI(BASE_URL + "Products(20)"), String.class).getBody()
+                .contains("Monopod"));
+    }
+
+    @Test
+    void testIndexOfBindsArgumentsInOrder() throws Exception {
+        // Both arguments are placeholders, so a swapped binding finds 'abc' in 'b' and matches nothing
+        URI uri = new URI(BASE_URL + "Products?$filter=indexof('abc','b')%20eq%201");
+        ResponseEntity<String> response = restTemplate.getForEntity(uri, String.class);
+
+        System.out.println("testIndexOfBindsArgumentsInOrder: Status=" + response.getStatusCode());
+        System.out.println("testIndexOfBindsArgumentsInOrder: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(dbUnitConnection.createDataSet().getTable("PRODUCT").getRowCount(),
+                new org.json.JSONObject(response.getBody()).getJSONArray("value").length());
+
+        uri = new URI(BASE_URL + "Products?$filter=indexof(concat(NAME,'-x'),'et-')%20eq%204");
+        response = restTemplate.getForEntity(uri, String.class);
+        org.json.JSONArray products = new org.json.JSONObject(response.getBody()).getJSONArray("value");
+        assertEquals(1, products.length());
+        assertEquals("Tablet", products.getJSONObject(0).getString("NAME"));
+    }
+
+    @Test
+    void testStreamingFailureReleasesConnection() throws Exception {
+        try (Statement stmt = h2Connection.createStatement()) {
+            stmt.execute("DELETE FROM TAG");
+            for (int i = 0; i < 800; i++) {
+                stmt.execute(String.format("INSERT INTO TAG VALUES ('K%04d', 'Tag %d')", i, i));
+            }
+            // A key with a space cannot form an entity id, so mapping this row fails mid-stream
+            stmt.execute("INSERT INTO TAG VALUES ('K0400 X', 'Broken')");
+        }
+
+        com.zaxxer.hikari.HikariPoolMXBean pool =
+                dataSource.unwrap(com.zaxxer.hikari.HikariDataSource.class).getHikariPoolMXBean();
+        int requests = dataSource.unwrap(com.zaxxer.hikari.HikariDataSource.class).getMaximumPoolSize() + 2;
+        for (int i = 0; i < requests; i++) {
+            try {
+                restTemplate.getForEntity(new URI(BASE_URL + "Tags?$orderby=CODE"), String.class);
+            } catch (org.springframework.web.client.RestClientException e) {
+                // The response is cut off after the rows already written
+                System.out.println("testStreamingFailureReleasesConnection: " + e.getMessage());
+            }
+        }
+
+        for (int i = 0; i < 50 && pool.getActiveConnections() > 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, pool.getActiveConnections());
+        try (Connection conn = dataSource.getConnection()) {
+            assertTrue(conn.getAutoCommit());
+            assertTrue(!conn.isReadOnly());
+        }
+        ResponseEntity<String> response = restTemplate.getForEntity(new URI(BASE_URL + "Products"), String.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+    }
+
+    @Test
+    void testCursorReadMatchesPlainRead() throws Exception {
+        String uri = BASE_URL + "Products?$orderby=PRICE%20desc,ID&$expand=Category";
+        Object fetchBytes = org.springframework.test.util.ReflectionTestUtils.getField(processor, "cursorFetchBytes");
+        try {
+            org.springframework.test.util.ReflectionTestUtils.setField(processor, "cursorFetchBytes", 0);
+            List<String> plainStreamed = readAllPages(uri, null);
+            List<String> plainPaged = readAllPages(uri, 3);
+
+            // One byte per fetch clamps the fetch size to its minimum
+            for (int fetch : new int[] { 1, 1048576 }) {
+                org.springframework.test.util.ReflectionTestUtils.setField(processor, "cursorFetchBytes", fetch);
+                assertEquals(plainStreamed, readAllPages(uri, null));
+                assertEquals(plainPaged, readAllPages(uri, 3));
+            }
+        } finally {
+            org.springframework.test.util.ReflectionTestUtils.setField(processor, "cursorFetchBytes", fetchBytes);
+        }
+        assertEquals(dbUnitConnection.createDataSet().getTable("PRODUCT").getRowCount(),
+                readAllPages(uri, 3).size());
+
+        // Every pooled connection is back to autocommit and read-write
+        com.zaxxer.hikari.HikariDataSource pool = dataSource.unwrap(com.zaxxer.hikari.HikariDataSource.class);
+        List<Connection> connections = new ArrayList<>();
+        try {
+            int total = pool.getHikariPoolMXBean().getTotalConnections();
+            for (int i = 0; i < total; i++) {
+                Connection conn = dataSource.getConnection();
+                connections.add(conn);
+                assertTrue(conn.getAutoCommit());
+                assertTrue(!conn.isReadOnly());
+            }
+        } finally {
+            for (Connection conn : connections) {
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * The entities of every page of a collection, following nextLinks.
+     */
+    private List<String> readAllPages(String uri, Integer maxPageSize) throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        if (maxPageSize != null) {
+            headers.set("Prefer", "odata.maxpagesize=" + maxPageSize);
+        }
+        List<String> entities = new ArrayList<>();
+        String next = uri;
+        while (next != null) {
+            ResponseEntity<String> page = restTemplate.exchange(
+                new URI(next), HttpMethod.GET, new HttpEntity<>(headers), String.class);
+            assertEquals(HttpStatus.OK, page.getStatusCode());
+            org.json.JSONObject pageJson = new org.json.JSONObject(page.getBody());
+            org.json.JSONArray values = pageJson.getJSONArray("value");
+            for (int i = 0; i < values.length(); i++) {
+                entities.add(values.getJSONObject(i).toString());
+            }
+            next = pageJson.optString("@odata.nextLink", null);
+        }
+        return entities;
+    }
+
+    @Test
+    void testApplyPagingAndUnsupportedOptions() throws Exception {
+        String uri = BASE_URL + "Products?$apply=groupby((CATEGORYID),aggregate(PRICE%20with%20sum%20as%20Total))"
+                + "&$orderby=CATEGORYID";
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Prefer", "odata.maxpagesize=1");
+        ResponseEntity<String> response = restTemplate.exchange(
+                new URI(uri), HttpMethod.GET, new HttpEntity<>(headers), String.class);
+
+        System.out.println("testApplyPagingAndUnsupportedOptions: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        org.json.JSONObject page = new org.json.JSONObject(response.getBody());
+        assertEquals(1, page.getJSONArray("value").length());
+        assertEquals(1, page.getJSONArray("value").getJSONObject(0).getInt("CATEGORYID"));
+        response = restTemplate.exchange(new URI(page.getString("@odata.nextLink")), HttpMethod.GET,
+                new HttpEntity<>(headers), String.class);
+        page = new org.json.JSONObject(response.getBody());
+        assertEquals(2, page.getJSONArray("value").getJSONObject(0).getInt("CATEGORYID"));
+        assertTrue(!page.has("@odata.nextLink"));
+
+        // Without $orderby the pages follow the groupby columns, so none repeats or is skipped
+        headers.set("Prefer", "odata.maxpagesize=3");
+        List<String> names = new java.util.ArrayList<>();
+        String next = BASE_URL + "Products?$apply=groupby((NAME),aggregate(PRICE%20with%20sum%20as%20Total))";
+        while (next != null) {
+            response = restTemplate.exchange(new URI(next), HttpMethod.GET, new HttpEntity<>(headers), String.class);
+            page = new org.json.JSONObject(response.getBody());
+            assertTrue(page.getJSONArray("value").length() <= 3);
+            for (Object row : page.getJSONArray("value")) {
+                names.add(((org.json.JSONObject) row).getString("NAME"));
+            }
+            next = page.optString("@odata.nextLink", null);
+        }
+        List<String> sorted = new java.util.ArrayList<>(new java.util.TreeSet<>(names));
+        assertEquals(dbUnitConnection.createDataSet().getTable("PRODUCT").getRowCount(), sorted.size());
+        assertEquals(sorted, names);
+
+        response = restTemplate.getForEntity(new URI(uri + "&$count=true"), String.class);
+        assertEquals(HttpStatus.NOT_IMPLEMENTED, response.getStatusCode());
+        response = restTemplate.getForEntity(new URI(uri + "&$search=Tablet"), String.class);
+        assertEquals(HttpStatus.NOT_IMPLEMENTED, response.getStatusCode());
+    }
+
+    @Test
+    void testCountStrategies() throws Exception {
+        int products = dbUnitConnection.createDataSet().getTable("PRODUCT").getRowCount();
+        Object strategy = org.springframework.test.util.ReflectionTestUtils.getField(processor, "countStrategy");
+        try {
+            // estimate and auto fall back to COUNT(*) where the database has no planner estimates
+            for (String value : new String[] { "exact", "estimate", "auto" }) {
+                org.springframework.test.util.ReflectionTestUtils.setField(processor, "countStrategy", value);
+
+                ResponseEntity<String> response = restTemplate.getForEntity(
+                        new URI(BASE_URL + "Products?$count=true&$top=2"), String.class);
+                System.out.println("testCountStrategies: " + value + " Body=" + response.getBody());
+                assertEquals(HttpStatus.OK, response.getStatusCode());
+                assertEquals(products, new org.json.JSONObject(response.getBody()).getInt("@odata.count"));
+                assertTrue(!response.getHeaders().containsKey("X-Count-Approximate"));
+
+                response = restTemplate.getForEntity(
+                        new URI(BASE_URL + "Products/$count?$filter=PRICE%20gt%20100"), String.class);
+                assertEquals(HttpStatus.OK, response.getStatusCode());
+                assertTrue(Integer.parseInt(response.getBody()) < products);
+                assertTrue(!response.getHeaders().containsKey("X-Count-Approximate"));
+            }
+        } finally {
+            org.springframework.test.util.ReflectionTestUtils.setField(processor, "countStrategy", strategy);
+        }
+    }
+
+    @Test
+    void testCountCacheTtl() throws Exception {
+        URI uri = new URI(BASE_URL + "Products/$count");
+        org.springframework.test.util.ReflectionTestUtils.setField(processor, "countCacheTtlMillis", 500L);
+        org.springframework.test.util.ReflectionTestUtils.setField(processor, "countCache", null);
+        try {
+            String cached = restTemplate.getForEntity(uri, String.class).getBody();
+            try (Statement stmt = h2Connection.createStatement()) {
+                stmt.execute("INSERT INTO PRODUCT (Id, Name, Price) VALUES (99, 'Cable', 5.00)");
+            }
+            // The cached count lags the insert until its time to live runs out
+            assertEquals(cached, restTemplate.getForEntity(uri, String.class).getBody());
+            Thread.sleep(600);
+            assertEquals(Integer.parseInt(cached) + 1,
+                    Integer.parseInt(restTemplate.getForEntity(uri, String.class).getBody()));
+        } finally {
+            org.springframework.test.util.ReflectionTestUtils.setField(processor, "countCacheTtlMillis", 0L);
+            org.springframework.test.util.ReflectionTestUtils.setField(processor, "countCache", null);
+        }
+    }
+
+    @Test
+    void testBatchChangeSetErrorIsValidJson() throws Exception {
+        // With return=minimal both inserts are queued, so the duplicate key fails the flushed batch
+        String body = String.join("\r\n",
+                "--batch_1",
+                "Content-Type: multipart/mixed; boundary=changeset_1",
+                "",
+                "--changeset_1",
+                "Content-Type: application/http",
+                "Content-Transfer-Encoding: binary",
+                "Content-ID: 1",
+                "",
+                "POST Products HTTP/1.1",
+                "Content-Type: application/json",
+                "Prefer: return=minimal",
+                "",
+                "{\"ID\":11,\"NAME\":\"Camera\",\"DESCRIPTION\":\"Digital camera\",\"PRICE\":400.00}",
+                "--changeset_1",
+                "Content-Type: application/http",
+                "Content-Transfer-Encoding: binary",
+                "Content-ID: 2",
+                "",
+                "POST Products HTTP/1.1",
+                "Content-Type: application/json",
+                "Prefer: return=minimal",
+                "",
+                "{\"ID\":1,\"NAME\":\"Duplicate \\\"quoted\\\"\",\"PRICE\":1.00}",
+                "--changeset_1--",
+                "",
+                "--batch_1--",
+                "");
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_TYPE, "multipart/mixed;boundary=batch_1");
+        ResponseEntity<String> response = restTemplate.exchange(BASE_URL + "$batch", HttpMethod.POST,
+                new HttpEntity<>(body, headers), String.class);
+
+        System.out.println("testBatchChangeSetErrorIsValidJson: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertTrue(response.getBody().contains("HTTP/1.1 500"));
+        String error = response.getBody().substring(response.getBody().indexOf("{\"error\""),
+                response.getBody().lastIndexOf('}') + 1);
+        assertTrue(!new org.json.JSONObject(error).getJSONObject("error").getString("message").isEmpty());
+        assertEquals(10, dbUnitConnection.createDataSet().getTable("PRODUCT").getRowCount());
+    }
+
+    @Test
+    void testBatchParallelReads() throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (int id = 1; id <= 4; id++) {
+            lines.addAll(List.of("--batch_1", "Content-Type: application/http", "Content-Transfer-Encoding: binary",
+                    "", "GET Products(" + id + ") HTTP/1.1", "Accept: application/json", "", ""));
+        }
+        lines.addAll(List.of("--batch_1--", ""));
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_TYPE, "multipart/mixed;boundary=batch_1");
+
+        Object parallelism = org.springframework.test.util.ReflectionTestUtils.getField(processor, "batchParallelism");
+        org.springframework.test.util.ReflectionTestUtils.setField(processor, "batchParallelism", 2);
+        try {
+            for (int round = 0; round < 2; round++) {
+                ResponseEntity<String> response = restTemplate.exchange(BASE_URL + "$batch", HttpMethod.POST,
+                        new HttpEntity<>(String.join("\r\n", lines), headers), String.class);
+                System.out.println("testBatchParallelReads: Body=" + response.getBody());
+
+                assertEquals(HttpStatus.OK, response.getStatusCode());
+                assertEquals(4, response.getBody().split("HTTP/1.1 200", -1).length - 1);
+                // Responses keep the order of the requests
+                assertTrue(response.getBody().indexOf("Notebook") < response.getBody().indexOf("Tablet"));
+            }
+        } finally {
+            org.springframework.test.util.ReflectionTestUtils.setField(processor, "batchParallelism", parallelism);
+        }
+    }
+
+    @Test
+    void testCreateEntityReadsDatabaseValues() throws Exception {
+        // The generated key and the column default come back from the database
+        ResponseEntity<String> response = executeJsonRequest(BASE_URL + "Notes", HttpMethod.POST,
+                "{\"TITLE\":\"First\"}");
+
+        System.out.println("testCreateEntityReadsDatabaseValues: Status=" + response.getStatusCode());
+        System.out.println("testCreateEntityReadsDatabaseValues: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.CREATED, response.getStatusCode());
+        org.json.JSONObject note = new org.json.JSONObject(response.getBody());
+        assertTrue(note.getInt("ID") > 0);
+        assertEquals("open", note.getString("STATUS"));
+
+        // With return=minimal the generated key still names the new entity
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("Prefer", "return=minimal");
+        response = restTemplate.exchange(BASE_URL + "Notes", HttpMethod.POST,
+                new HttpEntity<>("{\"TITLE\":\"Second\"}", headers), String.class);
+        assertEquals(HttpStatus.NO_CONTENT, response.getStatusCode());
+        String entityId = response.getHeaders().getFirst("OData-EntityId");
+        assertTrue(entityId.matches(".*Notes\\(\\d+\\)"), entityId);
+        assertEquals(entityId, response.getHeaders().getFirst("Location"));
+    }
+
+    @Test
+    void testUpsertNeedsCompleteEntity() throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("X-HTTP-Method", "PATCH");
+
+        // An empty PATCH to a missing key must not insert a key-only row
+        ResponseEntity<String> response = restTemplate.exchange(BASE_URL + "Products(30)", HttpMethod.POST,
+                new HttpEntity<>("{}", headers), String.class);
+
+        System.out.println("testUpsertNeedsCompleteEntity: Status=" + response.getStatusCode());
+        System.out.println("testUpsertNeedsCompleteEntity: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals(10, dbUnitConnection.createDataSet().getTable("PRODUCT").getRowCount());
+
+        // An empty PATCH to an existing entity changes nothing
+        response = restTemplate.exchange(BASE_URL + "Products(2)", HttpMethod.POST,
+                new HttpEntity<>("{}", headers), String.class);
+        assertEquals(HttpStatus.NO_CONTENT, response.getStatusCode());
+
+        // A NOT NULL column left out cannot create the entity, but can update it
+        try (Statement stmt = h2Connection.createStatement()) {
+            stmt.execute("DELETE FROM LABEL");
+        }
+        response = restTemplate.exchange(BASE_URL + "Labels(1)", HttpMethod.POST,
+                new HttpEntity<>("{\"COLOR\":\"red\"}", headers), String.class);
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertTrue(response.getBody().contains("NAME"), response.getBody());
+        assertEquals(0, dbUnitConnection.createDataSet().getTable("LABEL").getRowCount());
+
+        response = executeJsonRequest(BASE_URL + "Labels(1)", HttpMethod.PUT, "{\"NAME\":\"Urgent\"}");
+        assertEquals(HttpStatus.NO_CONTENT, response.getStatusCode());
+        response = restTemplate.exchange(BASE_URL + "Labels(1)", HttpMethod.POST,
+                new HttpEntity<>("{\"COLOR\":\"red\"}", headers), String.class);
+        assertEquals(HttpStatus.NO_CONTENT, response.getStatusCode());
+        org.json.JSONObject label = new org.json.JSONObject(
+                restTemplate.getForEntity(new URI(BASE_URL + "Labels(1)"), String.class).getBody());
+        assertEquals("Urgent", label.getString("NAME"));
+        assertEquals("red", label.getString("COLOR"));
+
+        // A PUT leaving out a NOT NULL column would null it, so it is refused before any SQL
+        response = executeJsonRequest(BASE_URL + "Labels(1)", HttpMethod.PUT, "{\"COLOR\":\"blue\"}");
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertTrue(response.getBody().contains("NAME"), response.getBody());
+        label = new org.json.JSONObject(
+                restTemplate.getForEntity(new URI(BASE_URL + "Labels(1)"), String.class).getBody());
+        assertEquals("Urgent", label.getString("NAME"));
+        assertEquals("red", label.getString("COLOR"));
+    }
+
+    @Test
+    void testUpdateStringKey() throws Exception {
+        try (Statement stmt = h2Connection.createStatement()) {
+            stmt.execute("DELETE FROM TAG");
+            stmt.execute("INSERT INTO TAG VALUES ('K1', 'One')");
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("X-HTTP-Method", "PATCH");
+        ResponseEntity<String> response = restTemplate.exchange(BASE_URL + "Tags('K1')", HttpMethod.POST,
+                new HttpEntity<>("{\"NAME\":\"Uno\"}", headers), String.class);
+
+        System.out.println("testUpdateStringKey: Status=" + response.getStatusCode());
+
+        // The quotes of the key predicate are not part of the key
+        assertEquals(HttpStatus.NO_CONTENT, response.getStatusCode());
+        response = executeJsonRequest(BASE_URL + "Tags('K2')", HttpMethod.PUT, "{\"NAME\":\"Two\"}");
+        assertEquals(HttpStatus.NO_CONTENT, response.getStatusCode());
+
+        java.util.Map<String, String> tags = new java.util.HashMap<>();
+        try (Statement stmt = h2Connection.createStatement();
+                java.sql.ResultSet rs = stmt.executeQuery("SELECT Code, Name FROM TAG")) {
+            while (rs.next()) {
+                tags.put(rs.getString(1), rs.getString(2));
+            }
+        }
+        assertEquals(java.util.Map.of("K1", "Uno", "K2", "Two"), tags);
+    }
+
+    @Test
+    void testBulkCreateUsesDatabaseValues() throws Exception {
+        try (Statement stmt = h2Connection.createStatement()) {
+            stmt.execute("DELETE FROM NOTE");
+        }
+        // The identity key and the STATUS default apply to properties a row leaves out
+        String json = "[{\"TITLE\":\"a\"},{\"TITLE\":\"b\"},{\"TITLE\":\"c\",\"STATUS\":\"done\"}]";
+        ResponseEntity<String> response = executeJsonRequest(BASE_URL + "Notes", HttpMethod.POST, json);
+
+        System.out.println("testBulkCreateUsesDatabaseValues: Status=" + response.getStatusCode());
+        System.out.println("testBulkCreateUsesDatabaseValues: Body=" + response.getBody());
+
+        assertEquals(HttpStatus.CREATED, response.getStatusCode());
+        assertEquals(3, new org.json.JSONObject(response.getBody()).getInt("inserted"));
+
+        java.util.Map<String, String> statuses = new java.util.HashMap<>();
+        java.util.Set<Integer> ids = new java.util.HashSet<>();
+        try (Statement stmt = h2Connection.createStatement();
+                java.sql.ResultSet rs = stmt.executeQuery("SELECT Id, Title, Status FROM NOTE")) {
+            while (rs.next()) {
+                ids.add(rs.getInt(1));
+                statuses.put(rs.getString(2), rs.getString(3));
+            }
+        }
+        assertEquals(3, ids.size());
+        assertEquals(java.util.Map.of("a", "open", "b", "open", "c", "done"), statuses);
+    }
 }
\ No newline at end of file